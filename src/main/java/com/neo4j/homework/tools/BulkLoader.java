@@ -0,0 +1,211 @@
+package com.neo4j.homework.tools;
+
+import com.neo4j.homework.unmanagedextension.RangeIndexes;
+import com.neo4j.homework.unmanagedextension.domain.RelationType;
+import com.neo4j.homework.unmanagedextension.domain.TvShow;
+import com.neo4j.homework.unmanagedextension.domain.User;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIntMap;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.index.lucene.ValueContext;
+import org.neo4j.index.lucene.unsafe.batchinsert.LuceneBatchInserterIndexProvider;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserterIndex;
+import org.neo4j.unsafe.batchinsert.BatchInserterIndexProvider;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline loader that writes users, TV shows and likes from CSV files straight to a new store with batch inserter,
+ * without transactions. Rows are validated by <code>CsvRows</code> like the extension validates requests, mails
+ * and titles are mapped to node ids in memory for likes, duplicate users, TV shows and likes are skipped.
+ * Rows are read by several threads out of file order, so which row of a duplicate mail or title is kept is
+ * arbitrary, not the first one in the file.
+ * Creates the schema indexes, uniqueness constraints and release date index the extension expects, and stores
+ * like counts of TV shows.
+ * Likes get no creation time, because CSV does not have it, so they are never trending.
+ * Server must not run on the store while loading.
+ */
+public class BulkLoader {
+    /** Config of Lucene indexes that extension creates with default settings. */
+    private static final Map<String, String> EXACT_INDEX = MapUtil.stringMap(IndexManager.PROVIDER, "lucene",
+                                                                              "type", "exact");
+
+    private final BatchInserter inserter;
+    private final BatchInserterIndexProvider indexProvider;
+    private final BatchInserterIndex tvShowReleaseDates;
+    private final Map<String, Long> userIds = new HashMap<>();
+    private final Map<String, Long> tvShowIds = new HashMap<>();
+    /** Likes as user node id in high and TV show node id in low 32 bits. */
+    private final PrimitiveLongSet likes = Primitive.longSet();
+    private final PrimitiveLongIntMap likeCounts = Primitive.longIntMap();
+
+    private BulkLoader(final String storeDir) {
+        this.inserter = BatchInserters.inserter(storeDir);
+        this.indexProvider = new LuceneBatchInserterIndexProvider(inserter);
+        this.tvShowReleaseDates = indexProvider.nodeIndex(RangeIndexes.TV_SHOW_RELEASE_DATES, EXACT_INDEX);
+    }
+
+    /**
+     * Loads all three CSV files to a new store. Store directory must not exist or be empty.
+     */
+    static void load(final String storeDir, final String userCsv, final String showCsv, final String relationCsv)
+            throws IOException {
+        String[] storeFiles = new File(storeDir).list();
+        if (storeFiles != null && storeFiles.length > 0) {
+            throw new IOException("Store directory must be empty: " + storeDir);
+        }
+        long start = System.nanoTime();
+        BulkLoader loader = new BulkLoader(storeDir);
+        try {
+            loader.loadUsers(userCsv);
+            loader.loadTvShows(showCsv);
+            loader.loadLikes(relationCsv);
+            loader.storeLikeCounts();
+            loader.createSchema();
+        } finally {
+            loader.indexProvider.shutdown();
+            loader.inserter.shutdown();
+        }
+        System.out.println("Store loaded in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    private void loadUsers(final String csvFile) throws IOException {
+        load(csvFile, "Users", new RowLoader<Map<String, Object>>() {
+            @Override
+            public Map<String, Object> convert(final CsvReader.Record record) throws IOException {
+                return CsvRows.toUser(record);
+            }
+
+            @Override
+            public void insert(final Map<String, Object> user) throws IOException {
+                String mail = (String) user.get(User.MAIL);
+                if (userIds.containsKey(mail)) {
+                    throw new IOException("User with mail [" + mail + "] is already loaded");
+                }
+                long userId = inserter.createNode(user, User.USER_LABEL);
+                userIds.put(mail, userId);
+            }
+        });
+    }
+
+    private void loadTvShows(final String csvFile) throws IOException {
+        load(csvFile, "TV shows", new RowLoader<Map<String, Object>>() {
+            @Override
+            public Map<String, Object> convert(final CsvReader.Record record) throws IOException {
+                return CsvRows.toTvShow(record);
+            }
+
+            @Override
+            public void insert(final Map<String, Object> tvShow) throws IOException {
+                String title = (String) tvShow.get(TvShow.TITLE);
+                if (tvShowIds.containsKey(title)) {
+                    throw new IOException("TV Show with title [" + title + "] is already loaded");
+                }
+                long tvShowId = inserter.createNode(tvShow, TvShow.TV_SHOW_LABEL);
+                tvShowReleaseDates.add(tvShowId, MapUtil.map(TvShow.RELEASE_DATE,
+                        ValueContext.numeric((Long) tvShow.get(TvShow.RELEASE_DATE))));
+                tvShowIds.put(title, tvShowId);
+            }
+        });
+    }
+
+    private void loadLikes(final String csvFile) throws IOException {
+        load(csvFile, "Likes", new RowLoader<Map<String, Object>>() {
+            @Override
+            public Map<String, Object> convert(final CsvReader.Record record) throws IOException {
+                return CsvRows.toLike(record);
+            }
+
+            @Override
+            public void insert(final Map<String, Object> like) throws IOException {
+                Long userId = userIds.get(like.get(User.MAIL));
+                Long tvShowId = tvShowIds.get(like.get(TvShow.TITLE));
+                if (userId == null || tvShowId == null) {
+                    throw new IOException("No such user or TV show");
+                }
+                if (userId >= 1L << 32 || tvShowId >= 1L << 32) {
+                    throw new IOException("Too many nodes for bulk load");
+                }
+                if (!likes.add(userId << 32 | tvShowId)) {
+                    throw new IOException("Already liked");
+                }
+                inserter.createRelationship(userId, tvShowId, RelationType.LIKES,
+                                            Collections.<String, Object>emptyMap());
+                likeCounts.put(tvShowId, likeCounts.containsKey(tvShowId) ? likeCounts.get(tvShowId) + 1 : 1);
+            }
+        });
+    }
+
+    private void storeLikeCounts() {
+        PrimitiveLongIterator tvShowIds = likeCounts.iterator();
+        while (tvShowIds.hasNext()) {
+            long tvShowId = tvShowIds.next();
+            inserter.setNodeProperty(tvShowId, TvShow.LIKE_COUNT, likeCounts.get(tvShowId));
+        }
+    }
+
+    /**
+     * Creates the same schema rules as the extension on start, they are populated when inserter shuts down.
+     */
+    private void createSchema() {
+        inserter.createDeferredConstraint(User.USER_LABEL).assertPropertyIsUnique(User.MAIL).create();
+        inserter.createDeferredConstraint(TvShow.TV_SHOW_LABEL).assertPropertyIsUnique(TvShow.TITLE).create();
+        inserter.createDeferredSchemaIndex(TvShow.TV_SHOW_LABEL).on(TvShow.RELEASE_DATE).create();
+    }
+
+    /**
+     * Reads CSV file with tokenizer threads that also convert and validate rows, and inserts rows one at a time,
+     * batch inserter and id maps are not thread safe. Rows that are not valid are printed with reason and skipped.
+     */
+    private <T> void load(final String csvFile, final String rowName, final RowLoader<T> rowLoader)
+            throws IOException {
+        final long[] counts = new long[2];
+        try {
+            CsvReader.read(new File(csvFile), Runtime.getRuntime().availableProcessors(),
+                           new CsvReader.RecordHandler() {
+                @Override
+                public void handle(final CsvReader.Record record) {
+                    try {
+                        T row = rowLoader.convert(record);
+                        synchronized (BulkLoader.this) {
+                            rowLoader.insert(row);
+                            counts[0]++;
+                        }
+                    } catch (IOException e) {
+                        synchronized (BulkLoader.this) {
+                            counts[1]++;
+                        }
+                        System.out.println("Not loaded at byte " + record.getOffset() + ": " + record
+                                           + " -> " + e.getMessage());
+                    }
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Load interrupted", e);
+        }
+        synchronized (this) {
+            System.out.println(rowName + " loaded: " + counts[0] + ", not loaded: " + counts[1]);
+        }
+    }
+
+    /**
+     * Validates CSV record and writes it to the store, throws exception with reason if record is not valid.
+     * Records are converted concurrently, rows are inserted while holding the loader lock.
+     */
+    private interface RowLoader<T> {
+        T convert(CsvReader.Record record) throws IOException;
+
+        void insert(T row) throws IOException;
+    }
+}
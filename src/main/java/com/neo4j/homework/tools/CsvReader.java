@@ -0,0 +1,239 @@
+package com.neo4j.homework.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Semicolon separated UTF-8 file reader. File is memory-mapped in chunks that end at line ends, and chunks are
+ * tokenized in parallel, so files of any size are read without copying them to the heap. Columns are only
+ * positions in the mapped chunk, values are copied when they are written. First line is a header and is skipped.
+ * Records are not read in file order.
+ */
+class CsvReader {
+    /** Size of mapped chunk, a chunk ends at the first line end after it. */
+    static final int CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final byte SEPARATOR = ';';
+    private static final int MAX_COLUMNS = 16;
+
+    /**
+     * Handles records of one chunk, record is valid only during the call.
+     */
+    interface RecordHandler {
+        void handle(Record record) throws IOException, InterruptedException;
+    }
+
+    private CsvReader() {
+    }
+
+    /**
+     * Reads all records of the file with <code>threads</code> threads. Returns when all chunks are read, throws
+     * the first failure of a handler.
+     */
+    static void read(final File file, final int threads, final RecordHandler handler)
+            throws IOException, InterruptedException {
+        read(file, threads, CHUNK_SIZE, handler);
+    }
+
+    /**
+     * Reads all records of the file in chunks of about <code>chunkSize</code> bytes.
+     */
+    static void read(final File file, final int threads, final int chunkSize, final RecordHandler handler)
+            throws IOException, InterruptedException {
+        ExecutorService tokenizers = Executors.newFixedThreadPool(threads);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = randomAccessFile.getChannel();
+            List<Future<Void>> chunks = new ArrayList<>();
+            long chunkStart = 0;
+            boolean header = true;
+            while (chunkStart < channel.size()) {
+                final long start = chunkStart;
+                final long end = findLineEnd(channel, Math.min(chunkStart + chunkSize, channel.size()));
+                final boolean skipHeader = header;
+                chunks.add(tokenizers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        tokenize(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start,
+                                 skipHeader, handler);
+                        return null;
+                    }
+                }));
+                chunkStart = end;
+                header = false;
+            }
+            for (Future<Void> chunk : chunks) {
+                try {
+                    chunk.get();
+                } catch (ExecutionException e) {
+                    for (Future<Void> other : chunks) {
+                        other.cancel(true);
+                    }
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException("Failed to read " + file, e.getCause());
+                }
+            }
+        } finally {
+            tokenizers.shutdownNow();
+        }
+    }
+
+    /**
+     * Finds position after the first line end at or after <code>position</code>, or file size.
+     */
+    private static long findLineEnd(final FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (position < channel.size()) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return channel.size();
+    }
+
+    private static void tokenize(final MappedByteBuffer chunk, final long chunkStart, final boolean skipHeader,
+                                 final RecordHandler handler) throws IOException, InterruptedException {
+        Record record = new Record(chunk);
+        int lineStart = 0;
+        boolean header = skipHeader;
+        while (lineStart < chunk.limit()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int position = lineStart;
+            record.columnCount = 0;
+            record.starts[0] = lineStart;
+            while (position < chunk.limit() && chunk.get(position) != '\n') {
+                if (chunk.get(position) == SEPARATOR && record.columnCount < MAX_COLUMNS - 1) {
+                    record.ends[record.columnCount++] = position;
+                    record.starts[record.columnCount] = position + 1;
+                }
+                position++;
+            }
+            int lineEnd = position > lineStart && chunk.get(position - 1) == '\r' ? position - 1 : position;
+            record.ends[record.columnCount] = Math.max(lineEnd, record.starts[record.columnCount]);
+            record.columnCount++;
+            record.offset = chunkStart + lineStart;
+            if (header) {
+                header = false;
+            } else if (lineEnd > lineStart) {
+                handler.handle(record);
+            }
+            lineStart = position + 1;
+        }
+    }
+
+    /**
+     * Line of the file: positions of its columns in the mapped chunk.
+     */
+    static class Record {
+        private final ByteBuffer chunk;
+        /** View of the chunk for bulk copying, its position is moved. */
+        private final ByteBuffer view;
+        private final int[] starts = new int[MAX_COLUMNS];
+        private final int[] ends = new int[MAX_COLUMNS];
+        private int columnCount;
+        /** Position of the line in the file. */
+        private long offset;
+        /** Column value copied from the chunk. */
+        private byte[] value = new byte[256];
+
+        private Record(ByteBuffer chunk) {
+            this.chunk = chunk;
+            this.view = chunk.duplicate();
+        }
+
+        int getColumnCount() {
+            return columnCount;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        boolean columnEquals(final int column, final byte[] bytes) {
+            if (ends[column] - starts[column] != bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (chunk.get(starts[column] + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Writes column value as JSON string, bytes are copied as they are and only quotes, backslashes and
+         * control characters are escaped.
+         */
+        void writeJsonString(final int column, final ByteArrayOutputStream json) {
+            int length = copyColumn(column);
+            json.write('"');
+            int unescaped = 0;
+            for (int i = 0; i < length; i++) {
+                byte b = value[i];
+                if (b == '"' || b == '\\' || (b >= 0 && b < 0x20)) {
+                    json.write(value, unescaped, i - unescaped);
+                    if (b < 0x20) {
+                        byte[] escape = String.format("\\u%04x", b).getBytes(StandardCharsets.US_ASCII);
+                        json.write(escape, 0, escape.length);
+                    } else {
+                        json.write('\\');
+                        json.write(b);
+                    }
+                    unescaped = i + 1;
+                }
+            }
+            json.write(value, unescaped, length - unescaped);
+            json.write('"');
+        }
+
+        /**
+         * Copies column value to <code>value</code>. Returns its length.
+         */
+        private int copyColumn(final int column) {
+            int length = ends[column] - starts[column];
+            if (value.length < length) {
+                value = new byte[Math.max(length, value.length * 2)];
+            }
+            view.position(starts[column]);
+            view.get(value, 0, length);
+            return length;
+        }
+
+        String getColumn(final int column) {
+            return new String(value, 0, copyColumn(column), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Gets the whole line, for messages.
+         */
+        @Override
+        public String toString() {
+            StringBuilder line = new StringBuilder();
+            for (int column = 0; column < columnCount; column++) {
+                line.append(column == 0 ? "" : ";").append(getColumn(column));
+            }
+            return line.toString();
+        }
+    }
+}
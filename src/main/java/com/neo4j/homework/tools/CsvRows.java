@@ -0,0 +1,88 @@
+package com.neo4j.homework.tools;
+
+import com.neo4j.homework.unmanagedextension.domain.Gender;
+import com.neo4j.homework.unmanagedextension.domain.TvShow;
+import com.neo4j.homework.unmanagedextension.domain.User;
+import com.neo4j.homework.unmanagedextension.utils.JsonUtils;
+import org.neo4j.helpers.collection.MapUtil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * Validates CSV rows by the rules the extension applies to requests and converts them to property values
+ * the way the extension stores them: ages as ints, long form genders and dates as days since 1970-01-01.
+ * Used by imports that write to the database without the extension.
+ */
+final class CsvRows {
+    /** End date column value of TV show that has not ended. */
+    static final byte[] NOT_ENDED = "N/A".getBytes(StandardCharsets.US_ASCII);
+
+    private CsvRows() {
+    }
+
+    /**
+     * Converts row "email;age;gender" to user properties. Throws exception with reason if row is not valid.
+     */
+    static Map<String, Object> toUser(final CsvReader.Record user) throws IOException {
+        checkColumnCount(user, 3);
+        String mail = toMail(user.getColumn(0));
+        String age = user.getColumn(1);
+        JsonUtils.validateUserAge(age);
+        String gender;
+        try {
+            gender = Gender.getLongForm(user.getColumn(2));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        return MapUtil.map(User.MAIL, mail, User.AGE, Integer.parseInt(age), User.GENDER, gender);
+    }
+
+    /**
+     * Converts row "title;aired;ended" to TV show properties, end date column is optional and "N/A" means that
+     * TV show has not ended, then there is no end date property. Throws exception with reason if row is not valid.
+     */
+    static Map<String, Object> toTvShow(final CsvReader.Record tvShow) throws IOException {
+        checkColumnCount(tvShow, 2);
+        String title = tvShow.getColumn(0);
+        JsonUtils.validateMovieTitle(title);
+        String releaseDate = JsonUtils.validateTvShowDate(tvShow.getColumn(1), TvShow.RELEASE_DATE);
+        String endDate = tvShow.getColumnCount() == 2 || tvShow.columnEquals(2, NOT_ENDED)
+                ? null : JsonUtils.validateTvShowDate(tvShow.getColumn(2), TvShow.END_DATE);
+        try {
+            JsonUtils.validateEndDateAfterRelease(releaseDate, endDate);
+            return endDate == null
+                    ? MapUtil.map(TvShow.TITLE, title, TvShow.RELEASE_DATE, TvShow.toEpochDay(releaseDate))
+                    : MapUtil.map(TvShow.TITLE, title, TvShow.RELEASE_DATE, TvShow.toEpochDay(releaseDate),
+                                  TvShow.END_DATE, TvShow.toEpochDay(endDate));
+        } catch (ParseException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Converts row "email;title" to mail and title of a like. Throws exception with reason if row is not valid.
+     */
+    static Map<String, Object> toLike(final CsvReader.Record like) throws IOException {
+        checkColumnCount(like, 2);
+        String mail = toMail(like.getColumn(0));
+        String title = like.getColumn(1);
+        JsonUtils.validateMovieTitle(title);
+        return MapUtil.map(User.MAIL, mail, TvShow.TITLE, title);
+    }
+
+    private static void checkColumnCount(final CsvReader.Record record, final int minColumns) throws IOException {
+        if (record.getColumnCount() < minColumns) {
+            throw new IOException("Wrong column count: " + record.getColumnCount());
+        }
+    }
+
+    private static String toMail(final String mail) throws IOException {
+        if (!JsonUtils.validateUserMail(mail)) {
+            throw new IOException("Wrong e-mail: " + mail);
+        }
+        return mail;
+    }
+}
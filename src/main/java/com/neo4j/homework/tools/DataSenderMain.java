@@ -24,6 +24,8 @@ public class DataSenderMain {
             } else if (args[0].equals("-p")) {
                 main.readPropertiesFile(args[1]);
                 main.parseArgumentsAndSendRequest(args);
+            } else if (args.length == 5 && args[0].equals("-bulk")) {
+                BulkLoader.load(args[1], args[2], args[3], args[4]);
             } else {
                 System.out.println("Wrong arguments.");
                 main.printHelp();
@@ -42,8 +44,12 @@ public class DataSenderMain {
     }
 
     private void parseArgumentsAndSendRequest(String ... args) throws IOException {
-        HttpSender sender = new HttpSender(properties);
+        try (HttpSender sender = new HttpSender(properties)) {
+            sendRequest(sender, args);
+        }
+    }
 
+    private void sendRequest(final HttpSender sender, final String ... args) throws IOException {
         switch (args[2]) {
             case "-ishow":
                 String pathToShowCsv = args[3];
@@ -59,6 +65,15 @@ public class DataSenderMain {
                 sender.importUserTvShowRelationShips(pathToUserCsv);
                 break;
             }
+            case "-cshow":
+                sender.importShowsByCypher(args[3]);
+                break;
+            case "-cuser":
+                sender.importUsersByCypher(args[3]);
+                break;
+            case "-crelation":
+                sender.importUserTvShowRelationShipsByCypher(args[3]);
+                break;
             case "-post":
                 if (args.length != 5) {
                     throw new IOException("Missing last parameter (JSON string) for POST method");
@@ -106,9 +121,18 @@ public class DataSenderMain {
         System.out.println("\t\tCSV file      : email;title");
         System.out.println("\t\t\temail       : alphanumeric@alpha.alpha (user must exist in the db)");
         System.out.println("\t\t\ttitle       : 1 to 50 alphanumeric string (show must exist in the db)");
+        System.out.println("\tArguments: -cshow, -cuser, -crelation");
+        System.out.println("\t\tArgument value: path to the csv file with header, same as above");
+        System.out.println("\t\tRows are validated by the tool and sent in batches to Cypher transactional endpoint");
+        System.out.println("\t\tBatch size and parallel batches are set in the properties file");
         System.out.println("\tArgument: -post");
         System.out.println("\t\tArgument value: API string (space) and JSON request string");
         System.out.println("\tArgument: -get");
         System.out.println("\t\tArgument value: API string with filled path paramaters");
+        System.out.println();
+        System.out.println("\tArgument: -bulk");
+        System.out.println("\t\tArgument values: store directory, user, show and relation csv files");
+        System.out.println("\t\tLoads all three csv files (formats as above) to a new store without server");
+        System.out.println("\t\tStore directory must be empty and server must not use it while loading");
     }
 }
@@ -1,59 +1,136 @@
 package com.neo4j.homework.tools;
 
+import com.neo4j.homework.unmanagedextension.domain.RelationType;
+import com.neo4j.homework.unmanagedextension.domain.TvShow;
+import com.neo4j.homework.unmanagedextension.domain.User;
 import org.apache.http.HttpHost;
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.AuthCache;
 import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.neo4j.helpers.collection.MapUtil;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * HTTP POST and GET method sender and CSV file parser and sender.
+ * HTTP POST and GET method sender and CSV file parser and sender. One client with a pool of keep-alive
+ * connections is shared by all requests, and imported rows are sent concurrently by a fixed pool of sender
+ * threads, so import speed is limited by the server and not by connection setup and round trips.
+ * CSV files can also be imported in batches of rows through the transactional Cypher endpoint of the server.
  */
-public class HttpSender {
-    private SenderProperties properties;
+public class HttpSender implements Closeable {
+    /** Start of compact JSON response to a row that server accepted. */
+    private static final String ACCEPTED_RESPONSE = "{\"statusOk\":true";
+    /** Transactional Cypher endpoint that runs statements of a request in one transaction and commits it. */
+    private static final String CYPHER_COMMIT_PATH = "/db/data/transaction/commit";
+    /** Times a Cypher batch is sent again after a transient error, like a deadlock between parallel batches. */
+    private static final int CYPHER_RETRIES = 5;
+    /** Max wait before the first retry of a Cypher batch, it doubles with every retry. */
+    private static final int CYPHER_RETRY_MILLIS = 50;
+    /** Creates users that do not exist, like the extension stores them. */
+    private static final String USER_MERGE = "UNWIND {rows} AS row"
+            + " MERGE (user:" + User.USER_LABEL.name() + " {" + User.MAIL + ": row." + User.MAIL + "})"
+            + " ON CREATE SET user." + User.AGE + " = row." + User.AGE
+            + ", user." + User.GENDER + " = row." + User.GENDER;
+    /** Creates TV shows that do not exist, end date is null and not set if TV show has not ended. */
+    private static final String TV_SHOW_MERGE = "UNWIND {rows} AS row"
+            + " MERGE (tvShow:" + TvShow.TV_SHOW_LABEL.name() + " {" + TvShow.TITLE + ": row." + TvShow.TITLE + "})"
+            + " ON CREATE SET tvShow." + TvShow.RELEASE_DATE + " = row." + TvShow.RELEASE_DATE
+            + ", tvShow." + TvShow.END_DATE + " = row." + TvShow.END_DATE;
+    /** Creates likes that do not exist with creation time, rows of missing users or TV shows are skipped. */
+    private static final String LIKE_MERGE = "UNWIND {rows} AS row"
+            + " MATCH (user:" + User.USER_LABEL.name() + " {" + User.MAIL + ": row." + User.MAIL + "}),"
+            + " (tvShow:" + TvShow.TV_SHOW_LABEL.name() + " {" + TvShow.TITLE + ": row." + TvShow.TITLE + "})"
+            + " MERGE (user)-[like:" + RelationType.LIKES.name() + "]->(tvShow)"
+            + " ON CREATE SET like." + User.LIKE_CREATED + " = timestamp()";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final SenderProperties properties;
+    private final HttpHost httpHost;
+    private final CloseableHttpClient client;
+    private final ExecutorService senders;
+    /** Max count of rows that are being sent or wait for a sender thread. */
+    private final int maxPendingRows;
+    /** Limits rows waiting for a sender thread, so they are not all queued at once. */
+    private final Semaphore pendingRows;
 
     public HttpSender(SenderProperties properties) {
         this.properties = properties;
+        this.httpHost = new HttpHost(properties.getServerAddress(), properties.getServerPort());
+        this.client = createHttpClient();
+        this.senders = Executors.newFixedThreadPool(properties.getSenderThreads());
+        this.maxPendingRows = properties.getSenderThreads() * 2;
+        this.pendingRows = new Semaphore(maxPendingRows);
     }
 
-    private HttpClient createHttpClient() {
+    private CloseableHttpClient createHttpClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        //all requests go to one server
+        connectionManager.setMaxTotal(properties.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(properties.getMaxConnections());
+        HttpClientBuilder builder = HttpClients.custom().setConnectionManager(connectionManager);
         if (properties.isServerAuth()) {
             CredentialsProvider credsProvider = new BasicCredentialsProvider();
             credsProvider.setCredentials(
                     new AuthScope(AuthScope.ANY_HOST, AuthScope.ANY_PORT, AuthScope.ANY_REALM, "basic"),
                     new UsernamePasswordCredentials(properties.getUserName(), properties.getUserPass()));
-            return HttpClients.custom().setDefaultCredentialsProvider(credsProvider).build();
-        } else {
-            return HttpClients.custom().build();
+            builder.setDefaultCredentialsProvider(credsProvider);
         }
+        return builder.build();
     }
 
-    private HttpHost getHttpHost() {
-        return new HttpHost(properties.getServerAddress(), properties.getServerPort());
+    /**
+     * Stops sender threads and closes pooled connections.
+     */
+    @Override
+    public void close() throws IOException {
+        senders.shutdown();
+        client.close();
     }
 
     private String getFullUrl(final String apiUrl) {
-        return String.format("http://%s:%d%s%s",properties.getServerAddress(), properties.getServerPort(),
-                                                properties.getUnmanagedExtensionsBasePath(), apiUrl);
+        return getServerUrl(properties.getUnmanagedExtensionsBasePath() + apiUrl);
     }
 
-    private HttpClientContext getHttpContext(final HttpHost httpHost) {
+    private String getServerUrl(final String path) {
+        return String.format("http://%s:%d%s", properties.getServerAddress(), properties.getServerPort(), path);
+    }
+
+    /**
+     * Creates context that sends basic authentication with the first request. Context is not thread safe,
+     * so every request gets its own.
+     */
+    private HttpClientContext getHttpContext() {
         AuthCache authCache = new BasicAuthCache();
         BasicScheme basicAuth = new BasicScheme();
         authCache.put(httpHost, basicAuth);
@@ -62,267 +139,457 @@ public class HttpSender {
         return localContext;
     }
 
+    private HttpPost createPost(final String url, final String json) {
+        HttpPost post = new HttpPost(getFullUrl(url));
+        post.setHeader("User-Agent", properties.getUserName());
+        post.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+        return post;
+    }
+
+    private HttpPost createPost(final String url, final byte[] json) {
+        HttpPost post = new HttpPost(getFullUrl(url));
+        post.setHeader("User-Agent", properties.getUserName());
+        post.setEntity(new ByteArrayEntity(json, ContentType.APPLICATION_JSON));
+        return post;
+    }
+
+    /**
+     * Executes request and reads response body. Response is always consumed and closed, so the connection
+     * goes back to the pool.
+     */
+    private String execute(final HttpRequestBase request, final boolean printStatus) throws IOException {
+        try (CloseableHttpResponse response = client.execute(httpHost, request, getHttpContext())) {
+            if (printStatus) {
+                System.out.println("HTTP Response Code : " + response.getStatusLine().getStatusCode());
+            }
+            return response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+        }
+    }
+
     /**
      * Sends HTTP POST request. Parameter URL is API url (not full URL).
      */
     void sendPost(final String url, final String json) throws IOException {
-        HttpClient client = createHttpClient();
-        HttpHost httpHost = getHttpHost();
-
-        HttpPost post = new HttpPost(getFullUrl(url));
-        post.setHeader("User-Agent", properties.getUserName());
-        post.setHeader("Content-type", "application/json");
-        post.setEntity(new StringEntity(json));
+        HttpPost post = createPost(url, json);
 
         System.out.println("\nSending 'POST' request to URL : " + post.getURI().toString());
         System.out.println("Request line: " + post.getRequestLine());
         System.out.println("JSON string: " + json);
 
-        HttpResponse response = client.execute(httpHost, post, getHttpContext(httpHost));
-
-        System.out.println("HTTP Response Code : " + response.getStatusLine().getStatusCode());
-
-        BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
+        String result = execute(post, true);
 
         System.out.println("Message body:");
-        StringBuilder result = new StringBuilder();
-        String line;
-        while ((line = rd.readLine()) != null) {
-            result.append(line);
-        }
-
-        System.out.println(result.toString());
-
+        System.out.println(result);
     }
 
     /**
      * Sends HTTP GET request. Parameter URL is API url (not full URL).
      */
     void sendGet(String url) throws IOException {
-        HttpClient client = createHttpClient();
-
-        HttpHost httpHost = getHttpHost();
         HttpGet request = new HttpGet(getFullUrl(url));
         request.addHeader("User-Agent", properties.getUserName());
 
         System.out.println("\nSending 'GET' request to URL : " + request.getURI().toString());
         System.out.println("Executing request " + request.getRequestLine());
 
-        HttpResponse response = client.execute(httpHost, request, getHttpContext(httpHost));
-
-        System.out.println("HTTP Response Code : " + response.getStatusLine().getStatusCode());
-
-        BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
+        String result = execute(request, true);
 
         System.out.println("Message body:");
-        StringBuilder result = new StringBuilder();
-        String line = "";
-        while ((line = rd.readLine()) != null) {
-            result.append(line);
-        }
-
-        System.out.println(result.toString());
+        System.out.println(result);
     }
 
-    private static class TvShow {
-        private String title;
-        private String aired;
-        private String end;
-
-        private TvShow(String title, String aired, String end) {
-            this.title = title;
-            this.aired = aired;
-            this.end = (end == null || end.equals("N/A"))? "" : end;
+    /**
+     * Reads CSV file with header and sends every row in its own POST request. File is tokenized in parallel by
+     * <code>CsvReader</code>, rows are written to JSON right from the mapped file and handed to sender threads
+     * through a queue bounded by <code>pendingRows</code>. Tokenizers wait while the queue is full, so memory use
+     * does not depend on file size and the first row is sent as soon as it is read. Waits until all rows are sent.
+     * Rows that server did not accept are printed with the response.
+     */
+    private void importCsv(final String csvFile, final String url, final RowWriter writer) throws IOException {
+        final ImportCounts counts = new ImportCounts();
+        long start = System.nanoTime();
+        try {
+            CsvReader.read(new File(csvFile), Runtime.getRuntime().availableProcessors(),
+                           new CsvReader.RecordHandler() {
+                @Override
+                public void handle(final CsvReader.Record record) throws InterruptedException {
+                    if (record.getColumnCount() < writer.getMinColumns()) {
+                        counts.failed.incrementAndGet();
+                        System.out.println("Wrong column count at byte " + record.getOffset() + ": " + record);
+                        return;
+                    }
+                    ByteArrayOutputStream json = new ByteArrayOutputStream(128);
+                    writer.writeJson(record, json);
+                    pendingRows.acquire();
+                    senders.execute(new RowSender(url, json.toByteArray(), counts));
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } finally {
+            //all permits are free again when the last row is sent
+            pendingRows.acquireUninterruptibly(maxPendingRows);
+            pendingRows.release(maxPendingRows);
         }
+        System.out.println(String.format("Rows accepted: %d, not accepted: %d, failed: %d in %d ms",
+                                         counts.accepted.get(), counts.rejected.get(), counts.failed.get(),
+                                         TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
 
-        @Override
-        public String toString() {
-            return "Show [title=" + title + " , air=" + aired + " , end=" + end + "]";
+    /**
+     * Sends one row in a sender thread and frees its place in the queue.
+     */
+    private class RowSender implements Runnable {
+        private final String url;
+        private final byte[] json;
+        private final ImportCounts counts;
+
+        private RowSender(String url, byte[] json, ImportCounts counts) {
+            this.url = url;
+            this.json = json;
+            this.counts = counts;
         }
 
-        public String toJson() {
-            String json;
-            if (end == null || end.isEmpty()) {
-                json = String.format("{\"title\":\"%s\", \"releaseDate\":\"%s\", \"endDate\":\"\"}", title, aired);
-            } else {
-                json = String.format("{\"title\":\"%s\", \"releaseDate\":\"%s\", \"endDate\":\"%s\"}", title, aired, end);
+        @Override
+        public void run() {
+            try {
+                HttpPost post = createPost(url, json);
+                //compact JSON fits in one line
+                post.setHeader("Accept", "application/json");
+                String result = execute(post, false);
+                if (result.startsWith(ACCEPTED_RESPONSE)) {
+                    counts.accepted.incrementAndGet();
+                } else {
+                    counts.rejected.incrementAndGet();
+                    System.out.println(new String(json, StandardCharsets.UTF_8) + " -> " + result);
+                }
+            } catch (Exception e) {
+                counts.failed.incrementAndGet();
+                System.out.println("Error while sending " + new String(json, StandardCharsets.UTF_8) + ": " + e);
+            } finally {
+                pendingRows.release();
             }
-
-            return json;
         }
     }
 
-    private static class User {
-        private String mail;
-        private String age;
-        private String gender;
+    /**
+     * Reads CSV file with header, validates rows by the extension rules and sends them in batches of
+     * <code>cypher_batch_size</code> rows, each batch as one parameterized <code>statement</code> in its own
+     * transaction. Up to <code>cypher_parallel_batches</code> batches are sent concurrently, tokenizers wait while
+     * all are busy. Waits until all batches are sent. Rows that are not valid are printed and not sent.
+     * Rows that statement did not create (<code>createdStat</code> of the batch is lower than its size)
+     * already existed or, for likes, have no user or TV show.
+     */
+    private void importCypher(final String csvFile, final String statement, final String createdStat,
+                              final RowConverter converter, final String ... lockKeys) throws IOException {
+        final ImportCounts counts = new ImportCounts();
+        int parallelBatches = properties.getCypherParallelBatches();
+        ExecutorService batchSenders = Executors.newFixedThreadPool(parallelBatches);
+        Semaphore pendingBatches = new Semaphore(parallelBatches);
+        BatchSender sender = new BatchSender(statement, createdStat, lockKeys, counts, batchSenders,
+                                             pendingBatches);
+        BatchCollector collector = new BatchCollector(converter, sender, counts);
+        long start = System.nanoTime();
+        try {
+            CsvReader.read(new File(csvFile), Runtime.getRuntime().availableProcessors(), collector);
+            collector.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } finally {
+            //all permits are free again when the last batch is sent
+            pendingBatches.acquireUninterruptibly(parallelBatches);
+            batchSenders.shutdown();
+        }
+        System.out.println(String.format("Rows created: %d, not created: %d, not valid: %d, failed: %d in %d ms",
+                                         counts.accepted.get(), counts.rejected.get(), counts.invalid.get(),
+                                         counts.failed.get(),
+                                         TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
 
-        private User(String mail, String age, String gender) {
-            this.mail = mail;
-            this.age = age;
-            this.gender = gender;
+    /**
+     * Converts valid rows and collects them to batches, full batches are handed to batch senders.
+     */
+    private class BatchCollector implements CsvReader.RecordHandler {
+        private final RowConverter converter;
+        private final BatchSender sender;
+        private final ImportCounts counts;
+        /** Batch being filled, guarded by the collector. */
+        private List<Map<String, Object>> rows;
+
+        private BatchCollector(RowConverter converter, BatchSender sender, ImportCounts counts) {
+            this.converter = converter;
+            this.sender = sender;
+            this.counts = counts;
+            this.rows = new ArrayList<>(properties.getCypherBatchSize());
         }
 
         @Override
-        public String toString() {
-            return "User [mail=" + mail + " , age=" + age + " , gender=" + gender + "]";
+        public void handle(final CsvReader.Record record) throws InterruptedException {
+            Map<String, Object> row;
+            try {
+                row = converter.convert(record);
+            } catch (IOException e) {
+                counts.invalid.incrementAndGet();
+                System.out.println("Not valid at byte " + record.getOffset() + ": " + record + " -> "
+                                   + e.getMessage());
+                return;
+            }
+            List<Map<String, Object>> fullBatch = null;
+            synchronized (this) {
+                rows.add(row);
+                if (rows.size() == properties.getCypherBatchSize()) {
+                    fullBatch = rows;
+                    rows = new ArrayList<>(properties.getCypherBatchSize());
+                }
+            }
+            if (fullBatch != null) {
+                sender.send(fullBatch);
+            }
         }
 
-        public String toJson() {
-            return String.format("{\"mail\":\"%s\", \"age\":\"%s\", \"gender\":\"%s\"}", mail, age, gender);
+        /**
+         * Sends the last batch that is not full.
+         */
+        private void flush() throws InterruptedException {
+            List<Map<String, Object>> lastBatch;
+            synchronized (this) {
+                lastBatch = rows;
+                rows = new ArrayList<>();
+            }
+            if (!lastBatch.isEmpty()) {
+                sender.send(lastBatch);
+            }
         }
     }
 
-    private static class Relation {
-        private String mail;
-        private String title;
-
-        private Relation(String mail, String title) {
-            this.mail = mail;
-            this.title = title;
+    /**
+     * Hands batches of one import to its batch sender threads.
+     */
+    private class BatchSender {
+        private final String statement;
+        private final String createdStat;
+        /** Row keys of nodes that statement locks, rows are sorted by them. */
+        private final String[] lockKeys;
+        private final ImportCounts counts;
+        private final ExecutorService batchSenders;
+        private final Semaphore pendingBatches;
+
+        private BatchSender(String statement, String createdStat, String[] lockKeys, ImportCounts counts,
+                            ExecutorService batchSenders, Semaphore pendingBatches) {
+            this.statement = statement;
+            this.createdStat = createdStat;
+            this.lockKeys = lockKeys;
+            this.counts = counts;
+            this.batchSenders = batchSenders;
+            this.pendingBatches = pendingBatches;
         }
 
-        @Override
-        public String toString() {
-            return "Like relation [mail=" + mail + " , title=" + title + "]";
+        /**
+         * Waits until a batch sender is free and sends the batch in it. Rows are sorted by lock keys first,
+         * so parallel batches lock the same nodes in the same order and deadlock less often.
+         */
+        private void send(final List<Map<String, Object>> rows) throws InterruptedException {
+            Collections.sort(rows, new Comparator<Map<String, Object>>() {
+                @Override
+                public int compare(final Map<String, Object> row, final Map<String, Object> other) {
+                    for (String key : lockKeys) {
+                        int compared = ((String) row.get(key)).compareTo((String) other.get(key));
+                        if (compared != 0) {
+                            return compared;
+                        }
+                    }
+                    return 0;
+                }
+            });
+            pendingBatches.acquire();
+            batchSenders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sendBatch(rows);
+                    } catch (Exception e) {
+                        counts.failed.addAndGet(rows.size());
+                        System.out.println("Error while sending batch of " + rows.size() + " rows: " + e);
+                    } finally {
+                        pendingBatches.release();
+                    }
+                }
+            });
         }
 
-        public String toJson() {
-            return String.format("{\"mail\":\"%s\", \"title\":\"%s\"}", mail, title);
+        /**
+         * Sends batch as one statement with statistics, batch is sent again after transient errors.
+         */
+        private void sendBatch(final List<Map<String, Object>> rows) throws IOException, InterruptedException {
+            Map<String, Object> cypherStatement = MapUtil.map("statement", statement,
+                                                              "parameters", Collections.singletonMap("rows", rows),
+                                                              "includeStats", true);
+            byte[] body = MAPPER.writeValueAsBytes(Collections.singletonMap("statements",
+                    Collections.singletonList(cypherStatement)));
+            for (int attempt = 0; ; attempt++) {
+                HttpPost post = new HttpPost(getServerUrl(CYPHER_COMMIT_PATH));
+                post.setHeader("User-Agent", properties.getUserName());
+                post.setHeader("Accept", "application/json");
+                //server writes results while it runs the statement
+                post.setHeader("X-Stream", "true");
+                post.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+                JsonNode response = MAPPER.readTree(execute(post, false));
+                JsonNode errors = response.path("errors");
+                if (errors.size() == 0) {
+                    long created = response.path("results").path(0).path("stats").path(createdStat).asLong();
+                    counts.accepted.addAndGet(created);
+                    counts.rejected.addAndGet(rows.size() - created);
+                    return;
+                }
+                if (!errors.path(0).path("code").asText().startsWith("Neo.TransientError.")
+                        || attempt == CYPHER_RETRIES) {
+                    counts.failed.addAndGet(rows.size());
+                    System.out.println("Batch of " + rows.size() + " rows failed: " + errors);
+                    return;
+                }
+                //random wait, so batches that locked the same nodes do not retry at the same time again
+                Thread.sleep(ThreadLocalRandom.current().nextInt(CYPHER_RETRY_MILLIS << attempt) + 1);
+            }
         }
     }
 
     /**
-     * Parses CSV file and sends POST requests to add TV Shows.
+     * Counts of rows accepted by server, not accepted by server, not valid and not sent.
      */
-    void importShows(final String csvFile) throws IOException {
+    private static class ImportCounts {
+        private final AtomicLong accepted = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong invalid = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+    }
 
-        BufferedReader br = null;
-        String line;
-        String cvsSplitBy = ";";
-        List<TvShow> showList = new ArrayList<>();
-        try {
-            br = new BufferedReader(new FileReader(csvFile));
-            boolean isHeader = true;
-            int linesRead = 0;
-
-            while ((line = br.readLine()) != null) {
-                if (isHeader) {
-                    isHeader = false;
-                    continue;
-                }
-                String[] tvShow = line.split(cvsSplitBy);
-                if (tvShow.length == 2) {
-                    showList.add(new TvShow(tvShow[0], tvShow[1], null));
-                } else {
-                    showList.add(new TvShow(tvShow[0], tvShow[1], tvShow[2]));
-                }
-                linesRead++;
-            }
-            for (TvShow show : showList) {
-                System.out.println(show.toString());
-            }
+    /**
+     * Validates CSV record and converts it to statement parameters, throws exception with reason if record
+     * is not valid.
+     */
+    private interface RowConverter {
+        Map<String, Object> convert(CsvReader.Record record) throws IOException;
+    }
 
-            System.out.println("TV Shows parsed: " + linesRead);
+    /**
+     * Writes CSV record as JSON request body.
+     */
+    private abstract static class RowWriter {
+        private final int minColumns;
 
-        } finally {
-            if (br != null) {
-                br.close();
-            }
+        private RowWriter(int minColumns) {
+            this.minColumns = minColumns;
         }
 
-        for (TvShow show : showList) {
-            try {
-                sendPost("/neueda/tvshow/add", show.toJson());
-            } catch (Exception e) {
-                e.printStackTrace();
-                System.out.println("Error while sending tv show: " + show.toString());
-            }
+        int getMinColumns() {
+            return minColumns;
         }
+
+        abstract void writeJson(CsvReader.Record record, ByteArrayOutputStream json);
     }
 
     /**
-     * Parses CSV file and sends POST requests to add Users.
+     * Writes JSON field name and separators, field value must be written after it.
      */
-    void importUsers(String csvFile) throws IOException {
-        BufferedReader br = null;
-        String line;
-        String cvsSplitBy = ";";
-        List<User> userList = new ArrayList<>();
-        try {
-            br = new BufferedReader(new FileReader(csvFile));
-            boolean isHeader = true;
-            int linesRead = 0;
-            while ((line = br.readLine()) != null) {
-                if (isHeader) {
-                    isHeader = false;
-                    continue;
+    private static void writeJsonName(final ByteArrayOutputStream json, final String name) {
+        json.write(json.size() == 0 ? '{' : ',');
+        byte[] bytes = ('"' + name + "\":").getBytes(StandardCharsets.US_ASCII);
+        json.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Parses CSV file and sends POST requests to add TV Shows. End date column is optional,
+     * "N/A" means that TV show has not ended.
+     */
+    void importShows(final String csvFile) throws IOException {
+        importCsv(csvFile, "/neueda/tvshow/add", new RowWriter(2) {
+            @Override
+            void writeJson(final CsvReader.Record tvShow, final ByteArrayOutputStream json) {
+                writeJsonName(json, "title");
+                tvShow.writeJsonString(0, json);
+                writeJsonName(json, "releaseDate");
+                tvShow.writeJsonString(1, json);
+                writeJsonName(json, "endDate");
+                if (tvShow.getColumnCount() == 2 || tvShow.columnEquals(2, CsvRows.NOT_ENDED)) {
+                    json.write('"');
+                    json.write('"');
+                } else {
+                    tvShow.writeJsonString(2, json);
                 }
-                String[] user = line.split(cvsSplitBy);
-                userList.add(new User(user[0], user[1], user[2]));
-                linesRead++;
-            }
-            for (User user : userList) {
-                System.out.println(user.toString());
-            }
-            System.out.println("Users parsed: " + linesRead);
-        } finally {
-            if (br != null) {
-                br.close();
+                json.write('}');
             }
-        }
+        });
+    }
 
-        for (User user : userList) {
-            try {
-                sendPost("/neueda/user/add", user.toJson());
-            } catch (Exception e) {
-                e.printStackTrace();
-                System.out.println("Error while sending User: " + user.toString());
+    /**
+     * Parses CSV file and sends POST requests to add Users.
+     */
+    void importUsers(String csvFile) throws IOException {
+        importCsv(csvFile, "/neueda/user/add", new RowWriter(3) {
+            @Override
+            void writeJson(final CsvReader.Record user, final ByteArrayOutputStream json) {
+                writeJsonName(json, "mail");
+                user.writeJsonString(0, json);
+                writeJsonName(json, "age");
+                user.writeJsonString(1, json);
+                writeJsonName(json, "gender");
+                user.writeJsonString(2, json);
+                json.write('}');
             }
-        }
+        });
     }
 
     /**
      * Parses CSV file and sends POST requests to add User->LIKES->TV Show relationship.
      */
     void importUserTvShowRelationShips(String csvFile) throws IOException {
-        BufferedReader br = null;
-        String line;
-        String cvsSplitBy = ";";
-        List<Relation> relationList = new ArrayList<>();
-        try {
-            br = new BufferedReader(new FileReader(csvFile));
-            boolean isHeader = true;
-            int linesRead = 0;
-
-            while ((line = br.readLine()) != null) {
-                if (isHeader) {
-                    isHeader = false;
-                    continue;
-                }
-                String[] user = line.split(cvsSplitBy);
-                relationList.add(new Relation(user[0], user[1]));
-                linesRead++;
+        importCsv(csvFile, "/neueda/user/liketvshow", new RowWriter(2) {
+            @Override
+            void writeJson(final CsvReader.Record relation, final ByteArrayOutputStream json) {
+                writeJsonName(json, "mail");
+                relation.writeJsonString(0, json);
+                writeJsonName(json, "title");
+                relation.writeJsonString(1, json);
+                json.write('}');
             }
-            for (Relation show : relationList) {
-                System.out.println(show.toString());
-            }
-            System.out.println("Like relations parsed: " + linesRead);
+        });
+    }
 
+    /**
+     * Parses CSV file and creates TV shows with Cypher batches.
+     */
+    void importShowsByCypher(final String csvFile) throws IOException {
+        importCypher(csvFile, TV_SHOW_MERGE, "nodes_created", new RowConverter() {
+            @Override
+            public Map<String, Object> convert(final CsvReader.Record record) throws IOException {
+                return CsvRows.toTvShow(record);
+            }
+        }, TvShow.TITLE);
+    }
 
-        } finally {
-            if (br != null) {
-                br.close();
+    /**
+     * Parses CSV file and creates users with Cypher batches.
+     */
+    void importUsersByCypher(final String csvFile) throws IOException {
+        importCypher(csvFile, USER_MERGE, "nodes_created", new RowConverter() {
+            @Override
+            public Map<String, Object> convert(final CsvReader.Record record) throws IOException {
+                return CsvRows.toUser(record);
             }
-        }
+        }, User.MAIL);
+    }
 
-        for (Relation relation : relationList) {
-            try {
-                sendPost("/neueda/user/liketvshow", relation.toJson());
-            } catch (Exception e) {
-                e.printStackTrace();
-                System.out.println("Error while sending relationship: " + relation.toString());
+    /**
+     * Parses CSV file and creates User->LIKES->TV Show relationships with Cypher batches.
+     */
+    void importUserTvShowRelationShipsByCypher(final String csvFile) throws IOException {
+        importCypher(csvFile, LIKE_MERGE, "relationships_created", new RowConverter() {
+            @Override
+            public Map<String, Object> convert(final CsvReader.Record record) throws IOException {
+                return CsvRows.toLike(record);
             }
-        }
+        }, User.MAIL, TvShow.TITLE);
     }
 }
@@ -21,6 +21,14 @@ public class SenderProperties {
     private String serverAddress;
     /** Server port.*/
     private int serverPort;
+    /** Count of threads that send imported rows concurrently. */
+    private int senderThreads;
+    /** Max count of pooled keep-alive connections to the server. */
+    private int maxConnections;
+    /** Count of rows sent in one Cypher statement. */
+    private int cypherBatchSize;
+    /** Count of Cypher batches that are sent concurrently. */
+    private int cypherParallelBatches;
 
     void loadProperties(final String propertiesPath) throws IOException {
         InputStream in = new FileInputStream(propertiesPath);
@@ -39,6 +47,27 @@ public class SenderProperties {
         unmanagedExtensionsBasePath = properties.getProperty("unmanaged_extensions_base_path");
         serverAddress = properties.getProperty("server_address");
         serverPort = Integer.parseInt(properties.getProperty("server_port"));
+
+        senderThreads = Integer.parseInt(properties.getProperty("sender_threads",
+                                                                "" + Runtime.getRuntime().availableProcessors()));
+        if (senderThreads < 1) {
+            throw new IOException("sender_threads must be positive: " + senderThreads);
+        }
+        cypherBatchSize = Integer.parseInt(properties.getProperty("cypher_batch_size", "1000"));
+        if (cypherBatchSize < 1) {
+            throw new IOException("cypher_batch_size must be positive: " + cypherBatchSize);
+        }
+        cypherParallelBatches = Integer.parseInt(properties.getProperty("cypher_parallel_batches",
+                                                                        "" + senderThreads));
+        if (cypherParallelBatches < 1) {
+            throw new IOException("cypher_parallel_batches must be positive: " + cypherParallelBatches);
+        }
+        //every sender thread and parallel batch keeps its connection by default
+        maxConnections = Integer.parseInt(properties.getProperty("max_connections",
+                                                                 "" + Math.max(senderThreads, cypherParallelBatches)));
+        if (maxConnections < 1) {
+            throw new IOException("max_connections must be positive: " + maxConnections);
+        }
     }
 
     public boolean isServerAuth() {
@@ -64,4 +93,20 @@ public class SenderProperties {
     public int getServerPort() {
         return serverPort;
     }
+
+    public int getSenderThreads() {
+        return senderThreads;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getCypherBatchSize() {
+        return cypherBatchSize;
+    }
+
+    public int getCypherParallelBatches() {
+        return cypherParallelBatches;
+    }
 }
@@ -0,0 +1,538 @@
+package com.neo4j.homework.unmanagedextension;
+
+import com.neo4j.homework.unmanagedextension.domain.RelationType;
+import com.neo4j.homework.unmanagedextension.domain.User;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIntMap;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongObjectMap;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Lock;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory TV show to TV show co-like index. For every TV show keeps a row of TV shows liked by the same users
+ * with count of such users, stored in sorted primitive arrays. Index is built by its own thread after extension
+ * start and then updated from every committed transaction that creates or deletes LIKES relationships. Committing
+ * transactions only collect their created and deleted likes, the same thread reads other likes of the users in its
+ * own transactions and updates the rows, so a like does not read all of its user's likes before commit and rows
+ * lag a little behind commits. Cached recommendations of users that like TV shows with changed rows are
+ * invalidated after the rows are updated.
+ * <p>
+ * A user with n likes adds n * (n - 1) row entries, each entry is a long and an int in arrays that grow by
+ * doubling (12 to 24 bytes). Index is dropped when it has more than the configured max count of entries, then it
+ * is not ready, like while it is built, and recommendations fall back to the most liked TV shows.
+ */
+public class CoLikeIndex implements TransactionEventHandler<CoLikeIndex.Changes>, Runnable {
+    /** Wait before user's changes are applied again when they cannot be applied yet. */
+    private static final long RETRY_MILLIS = 10;
+
+    /**
+     * Object for accessing graph database and execute commands.
+     */
+    private final GraphDatabaseService database;
+    /** Recommendations computed from co-like rows. */
+    private final RecommendationCache recommendationCache;
+    /** Co-like rows by TV show node id. */
+    private final PrimitiveLongObjectMap<Row> rows = Primitive.longObjectMap();
+    /** Guards rows, updates are short and happen only on the applier thread, one user at a time. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Committed like changes by user node id that are not applied to rows yet. Guarded by this. */
+    private final PrimitiveLongObjectMap<UserLikeChanges> pendingByUser = Primitive.longObjectMap();
+    /** Users deleted before they were built, their deleted likes were never added to rows. Guarded by this. */
+    private final PrimitiveLongSet deletedBeforeBuilt = Primitive.longSet();
+    /** Guarded by this. */
+    private boolean stopped;
+    /** Max count of row entries. */
+    private final long maxEntries;
+    /** Count of row entries. Guarded by lock. */
+    private long entries;
+    /** True when rows are built and can be read. */
+    private volatile boolean ready;
+    private volatile String state = "NOT_STARTED";
+
+    public CoLikeIndex(final GraphDatabaseService database, final RecommendationCache recommendationCache,
+                       final long maxEntries) {
+        this.database = database;
+        this.recommendationCache = recommendationCache;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Builds index from all users' likes in one pass over users. Handler must be registered before, so likes
+     * committed meanwhile are pending: pending changes of a user are dropped when the user is built, because
+     * they are already in the read likes.
+     */
+    void build() {
+        state = "BUILDING";
+        try ( Transaction tx = database.beginTx();
+              ResourceIterator<Node> userNodes = database.findNodes(User.USER_LABEL) ) {
+            while (userNodes.hasNext() && !isStopped()) {
+                Node userNode = userNodes.next();
+                long[] tvShowIds;
+                try {
+                    Lock userLock = tx.acquireReadLock(userNode);
+                    tvShowIds = toArray(new User(userNode).getLikedTvShowIds());
+                    takePending(userNode.getId(), false);
+                    userLock.release();
+                } catch (NotFoundException e) {
+                    //user is deleted by committed transaction, its changes are dropped when they are pending
+                    synchronized (this) {
+                        if (takePending(userNode.getId(), true) == null) {
+                            deletedBeforeBuilt.add(userNode.getId());
+                        }
+                    }
+                    continue;
+                }
+                lock.writeLock().lock();
+                try {
+                    for (long tvShowId : tvShowIds) {
+                        for (long otherTvShowId : tvShowIds) {
+                            if (tvShowId != otherTvShowId) {
+                                update(tvShowId, otherTvShowId, 1);
+                            }
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                checkEntries();
+            }
+            tx.success();
+        }
+        if (!isStopped()) {
+            ready = true;
+            state = "READY";
+            //recommendations by the most liked TV shows were cached while index was not ready
+            recommendationCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Returns true if rows are built and recommendations can be scored.
+     */
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Gets index state: NOT_STARTED, BUILDING, READY, DROPPED or FAILED with reason.
+     */
+    String getState() {
+        return state;
+    }
+
+    /**
+     * Gets count of row entries.
+     */
+    long getEntries() {
+        lock.readLock().lock();
+        try {
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Scores TV shows not in the given set by adding up co-like rows of the given TV shows. For a user's liked
+     * TV shows it gives the same scores as walking user -> liked TV shows -> co-likers -> co-likers' TV shows,
+     * because every co-liker counts once for each pair of TV shows they like.
+     */
+    PrimitiveLongIntMap score(final PrimitiveLongSet likedTvShowIds) {
+        PrimitiveLongIntMap scores = Primitive.longIntMap();
+        if (!ready) {
+            return scores;
+        }
+        lock.readLock().lock();
+        try {
+            PrimitiveLongIterator tvShowIds = likedTvShowIds.iterator();
+            while (tvShowIds.hasNext()) {
+                Row row = rows.get(tvShowIds.next());
+                if (row == null) {
+                    continue;
+                }
+                for (int i = 0; i < row.size; i++) {
+                    long otherTvShowId = row.tvShowIds[i];
+                    if (likedTvShowIds.contains(otherTvShowId)) {
+                        continue;
+                    }
+                    if (scores.containsKey(otherTvShowId)) {
+                        scores.put(otherTvShowId, scores.get(otherTvShowId) + row.counts[i]);
+                    } else {
+                        scores.put(otherTvShowId, row.counts[i]);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return scores;
+    }
+
+    /**
+     * Collects created and deleted likes by user while transaction state can still be read. Other likes of
+     * the users are not read here, the transaction still holds its locks.
+     */
+    @Override
+    public Changes beforeCommit(final TransactionData data) {
+        Changes changes = null;
+        for (Relationship like : data.createdRelationships()) {
+            if (like.isType(RelationType.LIKES)) {
+                changes = addLikeChange(changes, data, like, true);
+            }
+        }
+        for (Relationship like : data.deletedRelationships()) {
+            if (like.isType(RelationType.LIKES)) {
+                changes = addLikeChange(changes, data, like, false);
+            }
+        }
+        return changes;
+    }
+
+    private static Changes addLikeChange(Changes changes, final TransactionData data, final Relationship like,
+                                         final boolean created) {
+        if (changes == null) {
+            changes = new Changes();
+        }
+        Node userNode = like.getStartNode();
+        UserLikeChanges userChanges = changes.likesByUser.get(userNode.getId());
+        if (userChanges == null) {
+            userChanges = new UserLikeChanges();
+            changes.likesByUser.put(userNode.getId(), userChanges);
+        }
+        (created ? userChanges.created : userChanges.deleted).add(like.getEndNode().getId());
+        userChanges.userDeleted |= data.isDeleted(userNode);
+        return changes;
+    }
+
+    /**
+     * Adds committed like changes to the pending changes of their users, applier applies them later.
+     */
+    @Override
+    public void afterCommit(final TransactionData data, final Changes changes) {
+        if (changes == null) {
+            return;
+        }
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            PrimitiveLongIterator userIds = changes.likesByUser.iterator();
+            while (userIds.hasNext()) {
+                long userId = userIds.next();
+                UserLikeChanges userChanges = pendingByUser.get(userId);
+                if (userChanges == null) {
+                    pendingByUser.put(userId, changes.likesByUser.get(userId));
+                } else {
+                    userChanges.merge(changes.likesByUser.get(userId));
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void afterRollback(final TransactionData data, final Changes changes) {
+        //nothing was applied before commit
+    }
+
+    /**
+     * Builds index and then applies pending like changes one user at a time until stopped.
+     */
+    @Override
+    public void run() {
+        try {
+            build();
+        } catch (RuntimeException e) {
+            drop("FAILED: " + e.getMessage());
+            return;
+        }
+        while (true) {
+            long userId;
+            synchronized (this) {
+                while (pendingByUser.isEmpty() && !stopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                userId = pendingByUser.iterator().next();
+            }
+            try {
+                applyUser(userId);
+            } catch (RuntimeException e) {
+                //user's changes stay pending and are applied on the next run
+                waitBeforeRetry();
+            }
+        }
+    }
+
+    private synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Drops index when it has too many entries.
+     */
+    private void checkEntries() {
+        if (getEntries() > maxEntries) {
+            drop("DROPPED: more than " + maxEntries + " entries");
+        }
+    }
+
+    /**
+     * Removes all rows and stops applying changes, recommendations are scored by the most liked TV shows then.
+     */
+    private void drop(final String reason) {
+        ready = false;
+        state = reason;
+        synchronized (this) {
+            stopped = true;
+            pendingByUser.clear();
+        }
+        lock.writeLock().lock();
+        try {
+            rows.clear();
+            entries = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        recommendationCache.invalidateAll();
+    }
+
+    /**
+     * Applies changes of users that are pending now on the calling thread.
+     */
+    void applyPending() {
+        long[] userIds;
+        synchronized (this) {
+            userIds = new long[pendingByUser.size()];
+            PrimitiveLongIterator iterator = pendingByUser.iterator();
+            for (int i = 0; iterator.hasNext(); i++) {
+                userIds[i] = iterator.next();
+            }
+        }
+        for (long userId : userIds) {
+            applyUser(userId);
+        }
+    }
+
+    /**
+     * Stops applier after the current user.
+     */
+    synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Reads user's likes and takes user's pending changes while the user is locked. Transactions that change
+     * user's likes lock the user until their <code>afterCommit</code> has run, so pending changes are exactly
+     * the changes between the last applied likes and the read likes. Then compares pairs of liked TV shows
+     * before and after the changes.
+     */
+    private void applyUser(final long userId) {
+        PrimitiveLongSet after;
+        UserLikeChanges userChanges;
+        try ( Transaction tx = database.beginTx() ) {
+            try {
+                Node userNode = database.getNodeById(userId);
+                tx.acquireReadLock(userNode);
+                after = new User(userNode).getLikedTvShowIds();
+                userChanges = takePending(userId, false);
+            } catch (NotFoundException e) {
+                //likes of deleted user are deleted in the same transaction, they are applied once it is pending
+                after = Primitive.longSet();
+                synchronized (this) {
+                    userChanges = takePending(userId, true);
+                    if (userChanges != null && deletedBeforeBuilt.remove(userId)) {
+                        return;
+                    }
+                }
+            }
+            tx.success();
+        }
+        if (userChanges == null) {
+            waitBeforeRetry();
+            return;
+        }
+
+        PrimitiveLongSet before = Primitive.longSet();
+        before.addAll(after.iterator());
+        PrimitiveLongIterator created = userChanges.created.iterator();
+        while (created.hasNext()) {
+            before.remove(created.next());
+        }
+        before.addAll(userChanges.deleted.iterator());
+
+        PrimitiveLongSet all = Primitive.longSet();
+        all.addAll(after.iterator());
+        all.addAll(before.iterator());
+        PrimitiveLongSet changed = Primitive.longSet();
+        changed.addAll(userChanges.created.iterator());
+        changed.addAll(userChanges.deleted.iterator());
+
+        PrimitiveLongSet changedRows = Primitive.longSet();
+        lock.writeLock().lock();
+        try {
+            PrimitiveLongIterator changedIds = changed.iterator();
+            while (changedIds.hasNext()) {
+                long tvShowId = changedIds.next();
+                PrimitiveLongIterator otherIds = all.iterator();
+                while (otherIds.hasNext()) {
+                    long otherTvShowId = otherIds.next();
+                    if (tvShowId == otherTvShowId) {
+                        continue;
+                    }
+                    int delta = (after.contains(tvShowId) && after.contains(otherTvShowId) ? 1 : 0)
+                            - (before.contains(tvShowId) && before.contains(otherTvShowId) ? 1 : 0);
+                    if (delta != 0) {
+                        update(tvShowId, otherTvShowId, delta);
+                        changedRows.add(tvShowId);
+                        if (!changed.contains(otherTvShowId)) {
+                            //pairs of two changed TV shows are visited from both sides
+                            update(otherTvShowId, tvShowId, delta);
+                            changedRows.add(otherTvShowId);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        recommendationCache.invalidateLikers(changedRows);
+        changedRows.close();
+        checkEntries();
+    }
+
+    /**
+     * Removes and returns pending changes of user. Changes of a user that was not found are taken only when
+     * the transaction that deleted the user is pending, returns null if it is not yet.
+     */
+    private synchronized UserLikeChanges takePending(final long userId, final boolean userNotFound) {
+        UserLikeChanges userChanges = pendingByUser.get(userId);
+        if (userChanges == null || (userNotFound && !userChanges.userDeleted)) {
+            return null;
+        }
+        pendingByUser.remove(userId);
+        return userChanges;
+    }
+
+    private synchronized void waitBeforeRetry() {
+        try {
+            wait(RETRY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void update(final long tvShowId, final long otherTvShowId, final int delta) {
+        Row row = rows.get(tvShowId);
+        if (row == null) {
+            row = new Row();
+            rows.put(tvShowId, row);
+        }
+        entries -= row.size;
+        row.add(otherTvShowId, delta);
+        entries += row.size;
+        if (row.size == 0) {
+            rows.remove(tvShowId);
+        }
+    }
+
+    private static long[] toArray(final PrimitiveLongSet set) {
+        long[] array = new long[set.size()];
+        PrimitiveLongIterator iterator = set.iterator();
+        for (int i = 0; iterator.hasNext(); i++) {
+            array[i] = iterator.next();
+        }
+        set.close();
+        return array;
+    }
+
+    /**
+     * Co-liked TV shows of one TV show, sorted by TV show node id.
+     */
+    private static class Row {
+        private long[] tvShowIds = new long[4];
+        private int[] counts = new int[4];
+        private int size;
+
+        private void add(final long tvShowId, final int delta) {
+            int index = Arrays.binarySearch(tvShowIds, 0, size, tvShowId);
+            if (index >= 0) {
+                counts[index] += delta;
+                if (counts[index] <= 0) {
+                    System.arraycopy(tvShowIds, index + 1, tvShowIds, index, size - index - 1);
+                    System.arraycopy(counts, index + 1, counts, index, size - index - 1);
+                    size--;
+                }
+            } else if (delta > 0) {
+                index = -index - 1;
+                if (size == tvShowIds.length) {
+                    tvShowIds = Arrays.copyOf(tvShowIds, size * 2);
+                    counts = Arrays.copyOf(counts, size * 2);
+                }
+                System.arraycopy(tvShowIds, index, tvShowIds, index + 1, size - index);
+                System.arraycopy(counts, index, counts, index + 1, size - index);
+                tvShowIds[index] = tvShowId;
+                counts[index] = delta;
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Created and deleted likes of one user by TV show node id, since the user's likes were last applied.
+     */
+    private static class UserLikeChanges {
+        private final PrimitiveLongSet created = Primitive.longSet();
+        private final PrimitiveLongSet deleted = Primitive.longSet();
+        private boolean userDeleted;
+
+        /**
+         * Adds later changes, a like that is created and then deleted (or the other way) is not changed.
+         */
+        private void merge(final UserLikeChanges later) {
+            PrimitiveLongIterator tvShowIds = later.created.iterator();
+            while (tvShowIds.hasNext()) {
+                long tvShowId = tvShowIds.next();
+                if (!deleted.remove(tvShowId)) {
+                    created.add(tvShowId);
+                }
+            }
+            tvShowIds = later.deleted.iterator();
+            while (tvShowIds.hasNext()) {
+                long tvShowId = tvShowIds.next();
+                if (!created.remove(tvShowId)) {
+                    deleted.add(tvShowId);
+                }
+            }
+            userDeleted |= later.userDeleted;
+        }
+    }
+
+    /**
+     * Like changes of a transaction by user node id.
+     */
+    static class Changes {
+        private final PrimitiveLongObjectMap<UserLikeChanges> likesByUser = Primitive.longObjectMap();
+    }
+}
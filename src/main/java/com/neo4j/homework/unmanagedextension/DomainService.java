@@ -1,56 +1,188 @@
 package com.neo4j.homework.unmanagedextension;
 
+import com.neo4j.homework.unmanagedextension.domain.LikeStatus;
+import com.neo4j.homework.unmanagedextension.domain.RelationType;
 import com.neo4j.homework.unmanagedextension.domain.TvShow;
 import com.neo4j.homework.unmanagedextension.domain.User;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.ConstraintViolationException;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.ResourceIterator;
-import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.kernel.DeadlockDetectedException;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * Domain service. Has access to graph database.
+ * Domain service. Has access to graph database. Time of every operation is recorded in metrics.
  */
 public class DomainService {
+    /** Default count of nodes created in one transaction by batch operations. */
+    static final int DEFAULT_CHUNK_SIZE = 1000;
+    /** Max count of nodes created in one transaction by batch operations. */
+    static final int MAX_CHUNK_SIZE = 10000;
+    /** Max count of recommended TV shows. */
+    static final int RECOMMENDATION_LIMIT = 10;
+    /** Default count of the most liked TV shows. */
+    static final int DEFAULT_TOP_LIMIT = 10;
+    /** Max count of retries of a like chunk that deadlocked with concurrent transaction. */
+    private static final int DEADLOCK_RETRIES = 5;
+    /** Max wait before the first retry of a deadlocked chunk, doubled on each next retry. */
+    private static final int DEADLOCK_RETRY_MILLIS = 50;
+
     /**
      * Object for accessing graph database and execute commands.
      */
     private final GraphDatabaseService database;
+    /** Native graph walking recommendations. */
+    private final RecommendationEngine recommendationEngine;
+    /** Recommendations by user. */
+    private final RecommendationCache recommendationCache;
+    /** Range reads of release dates. */
+    private final RangeIndexes rangeIndexes;
+    /** TV show air intervals. */
+    private final OnAirIndex onAirIndex;
+    /** Liked TV shows of users with many likes. */
+    private final LikeFilters likeFilters;
+    /** Most liked TV shows. */
+    private final TopTvShows topTvShows;
+    /** Recent like counts. */
+    private final TrendingTvShows trendingTvShows;
+    /** Latency of operations. */
+    private final Metrics metrics;
 
-    public DomainService(final GraphDatabaseService database) {
+    public DomainService(final GraphDatabaseService database, final CoLikeIndex coLikeIndex,
+                         final RecommendationCache recommendationCache, final RangeIndexes rangeIndexes,
+                         final OnAirIndex onAirIndex, final LikeFilters likeFilters, final TopTvShows topTvShows,
+                         final TrendingTvShows trendingTvShows, final Metrics metrics) {
         this.database = database;
+        this.recommendationEngine = new RecommendationEngine(database, coLikeIndex, topTvShows);
+        this.recommendationCache = recommendationCache;
+        this.rangeIndexes = rangeIndexes;
+        this.onAirIndex = onAirIndex;
+        this.likeFilters = likeFilters;
+        this.topTvShows = topTvShows;
+        this.trendingTvShows = trendingTvShows;
+        this.metrics = metrics;
     }
 
-    boolean createUser(final String mail, final String age, final String gender) {
+    /**
+     * Creates user only if there is no user with the same mail. Lookup and creation run in one transaction,
+     * uniqueness constraint on mail stops concurrent transactions from creating the same user.
+     * Returns false if user already existed.
+     */
+    boolean createUser(final String mail, final int age, final String gender) {
+        long start = System.nanoTime();
         try ( Transaction tx = database.beginTx() ) {
-            Node newUser = database.createNode(User.USER_LABEL);
-            newUser.setProperty(User.MAIL, mail);
-            newUser.setProperty(User.AGE, age);
-            newUser.setProperty(User.GENDER, gender);
+            if (database.findNode(User.USER_LABEL, User.MAIL, mail) != null) {
+                tx.success();
+                return false;
+            }
+            createUserNode(mail, age, gender);
             tx.success();
             return true;
+        } catch (ConstraintViolationException e) {
+            //user was created by concurrent transaction
+            return false;
+        } finally {
+            metrics.recordOperation("createUser", start);
+        }
+    }
+
+    /**
+     * Creates users that are not in the database yet. Commits once per chunk of users.
+     * Returns list of flags in the same order as given users, false if user already existed.
+     */
+    List<Boolean> createUsers(final List<UserRow> users, final int chunkSize) {
+        long start = System.nanoTime();
+        try {
+            return createUsersInChunks(users, chunkSize);
+        } finally {
+            metrics.recordOperation("createUsers", start);
         }
     }
 
+    private List<Boolean> createUsersInChunks(final List<UserRow> users, final int chunkSize) {
+        List<Boolean> created = new ArrayList<>(users.size());
+        for (int from = 0; from < users.size(); from += chunkSize) {
+            List<UserRow> chunk = users.subList(from, Math.min(from + chunkSize, users.size()));
+            try {
+                created.addAll(createUserChunk(chunk));
+            } catch (ConstraintViolationException | TransactionFailureException e) {
+                //concurrent transaction created some of the users, chunk is rolled back and retried user by user
+                for (UserRow user : chunk) {
+                    created.add(createUser(user.mail, user.age, user.gender));
+                }
+            }
+        }
+        return created;
+    }
+
+    private List<Boolean> createUserChunk(final List<UserRow> chunk) {
+        try ( Transaction tx = database.beginTx() ) {
+            List<Boolean> created = new ArrayList<>(chunk.size());
+            for (UserRow user : chunk) {
+                if (database.findNode(User.USER_LABEL, User.MAIL, user.mail) != null) {
+                    created.add(false);
+                } else {
+                    createUserNode(user.mail, user.age, user.gender);
+                    created.add(true);
+                }
+            }
+            tx.success();
+            return created;
+        }
+    }
+
+    private Node createUserNode(final String mail, final int age, final String gender) {
+        Node newUser = database.createNode(User.USER_LABEL);
+        newUser.setProperty(User.MAIL, mail);
+        newUser.setProperty(User.AGE, age);
+        newUser.setProperty(User.GENDER, gender);
+        return newUser;
+    }
+
     boolean userExists(final String mail) {
+        long start = System.nanoTime();
         try ( Transaction tx = database.beginTx() ) {
             ResourceIterator<Node> nodes = database.findNodes(User.USER_LABEL, User.MAIL, mail);
             boolean userExists = nodes.hasNext();
             nodes.close();
             tx.success();
             return userExists;
+        } finally {
+            metrics.recordOperation("userExists", start);
         }
     }
 
-    boolean createTvShow(final String title, final String releaseDate, final String endDate) {
+    /**
+     * Creates TV show only if there is no TV show with the same title. Lookup and creation run in one transaction,
+     * uniqueness constraint on title stops concurrent transactions from creating the same TV show.
+     * Dates are days since 1970-01-01, end date is null if TV show has not ended.
+     * Returns false if TV show already existed.
+     */
+    boolean createTvShow(final String title, final long releaseDate, final Long endDate) {
+        long start = System.nanoTime();
         try ( Transaction tx = database.beginTx() ) {
+            if (database.findNode(TvShow.TV_SHOW_LABEL, TvShow.TITLE, title) != null) {
+                tx.success();
+                return false;
+            }
             Node newTvShow = database.createNode(TvShow.TV_SHOW_LABEL);
             newTvShow.setProperty(TvShow.TITLE, title);
             newTvShow.setProperty(TvShow.RELEASE_DATE, releaseDate);
@@ -59,153 +191,535 @@ public class DomainService {
             }
             tx.success();
             return true;
-        }
-    }
-
-    boolean tvShowExists(final String title) {
-        try ( Transaction tx = database.beginTx() ) {
-            ResourceIterator<Node> nodes = database.findNodes(TvShow.TV_SHOW_LABEL, TvShow.TITLE, title);
-            boolean tvShowExists = nodes.hasNext();
-            nodes.close();
-            tx.success();
-            return tvShowExists;
+        } catch (ConstraintViolationException e) {
+            //TV show was created by concurrent transaction
+            return false;
+        } finally {
+            metrics.recordOperation("createTvShow", start);
         }
     }
 
     boolean likeTvShowByUser(final String mail,final  String title) throws IOException {
+        long start = System.nanoTime();
         try ( Transaction tx = database.beginTx() ) {
-            ResourceIterator<Node> showNodes = database.findNodes(TvShow.TV_SHOW_LABEL, TvShow.TITLE, title);
-            TvShow tvShow;
-            if (showNodes.hasNext()) {
-                tvShow = new TvShow(showNodes.next());
-            } else {
-                showNodes.close();
+            Node tvShowNode = database.findNode(TvShow.TV_SHOW_LABEL, TvShow.TITLE, title);
+            if (tvShowNode == null) {
                 tx.success();
                 throw new IOException("No such movie in the database with title: " + title);
             }
-            showNodes.close();
-
-            ResourceIterator<Node> userNodes = database.findNodes(User.USER_LABEL, User.MAIL, mail);
-
-            User user;
-            if (userNodes.hasNext()) {
-                user = new User(userNodes.next());
-            } else {
-                userNodes.close();
+            Node userNode = database.findNode(User.USER_LABEL, User.MAIL, mail);
+            if (userNode == null) {
                 tx.success();
                 throw new IOException("No such user in the database with mail: " + mail);
             }
-            userNodes.close();
-            boolean addedLike = user.addTvShowLike(tvShow);
+
+            //concurrent likes of the user wait, so the check and the filter see all user's likes
+            tx.acquireWriteLock(userNode);
+            User user = new User(userNode);
+            TvShow tvShow = new TvShow(tvShowNode);
+            boolean addedLike;
+            if (likeFilters.mightLike(userNode, tvShowNode)) {
+                addedLike = user.addTvShowLike(tvShow);
+            } else {
+                user.createTvShowLike(tvShow);
+                addedLike = true;
+            }
+            //created like is added to the filter by its transaction handler
             tx.success();
             return addedLike;
+        } finally {
+            metrics.recordOperation("likeTvShowByUser", start);
         }
     }
 
-    List<String> getUserLikedTvShows(final String userMail) throws IOException {
+    /**
+     * Adds TV show likes by users. Each distinct user and TV show is looked up once, likes are grouped by user
+     * and committed in chunks of at least <code>chunkSize</code> likes (likes of one user are in the same chunk).
+     * Returns like statuses in the same order as given likes, likes of a chunk that could not be committed
+     * because of concurrent transactions are <code>CONCURRENT_UPDATE</code>.
+     */
+    List<LikeStatus> likeTvShowsByUsers(final List<LikeRow> likes, final int chunkSize) {
+        long start = System.nanoTime();
+        try {
+            return likeTvShowsInChunks(likes, chunkSize);
+        } finally {
+            metrics.recordOperation("likeTvShowsByUsers", start);
+        }
+    }
+
+    private List<LikeStatus> likeTvShowsInChunks(final List<LikeRow> likes, final int chunkSize) {
+        Map<String, Long> userIds = new HashMap<>();
+        Map<String, Long> tvShowIds = new HashMap<>();
         try ( Transaction tx = database.beginTx() ) {
-            ResourceIterator<Node> userNodes = database.findNodes(User.USER_LABEL, User.MAIL, userMail);
+            for (LikeRow like : likes) {
+                if (!userIds.containsKey(like.mail)) {
+                    Node userNode = database.findNode(User.USER_LABEL, User.MAIL, like.mail);
+                    userIds.put(like.mail, userNode == null ? null : userNode.getId());
+                }
+                if (!tvShowIds.containsKey(like.title)) {
+                    Node tvShowNode = database.findNode(TvShow.TV_SHOW_LABEL, TvShow.TITLE, like.title);
+                    tvShowIds.put(like.title, tvShowNode == null ? null : tvShowNode.getId());
+                }
+            }
+            tx.success();
+        }
 
-            User user;
-            if (userNodes.hasNext()) {
-                user = new User(userNodes.next());
+        LikeStatus[] statuses = new LikeStatus[likes.size()];
+        //sorted by user node id, so concurrent batches lock users in the same order
+        Map<Long, List<Integer>> likesByUser = new TreeMap<>();
+        for (int i = 0; i < likes.size(); i++) {
+            LikeRow like = likes.get(i);
+            Long userId = userIds.get(like.mail);
+            if (userId == null) {
+                statuses[i] = LikeStatus.UNKNOWN_USER;
+            } else if (tvShowIds.get(like.title) == null) {
+                statuses[i] = LikeStatus.UNKNOWN_TV_SHOW;
             } else {
-                userNodes.close();
-                tx.success();
+                List<Integer> userLikes = likesByUser.get(userId);
+                if (userLikes == null) {
+                    userLikes = new ArrayList<>();
+                    likesByUser.put(userId, userLikes);
+                }
+                userLikes.add(i);
+            }
+        }
+
+        Map<Long, List<Integer>> chunk = new LinkedHashMap<>();
+        int chunkLikes = 0;
+        for (Entry<Long, List<Integer>> userLikes : likesByUser.entrySet()) {
+            chunk.put(userLikes.getKey(), userLikes.getValue());
+            chunkLikes += userLikes.getValue().size();
+            if (chunkLikes >= chunkSize) {
+                likeTvShowChunk(chunk, likes, tvShowIds, statuses);
+                chunk.clear();
+                chunkLikes = 0;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            likeTvShowChunk(chunk, likes, tvShowIds, statuses);
+        }
+        return Arrays.asList(statuses);
+    }
+
+    private void likeTvShowChunk(final Map<Long, List<Integer>> chunk, final List<LikeRow> likes,
+                                 final Map<String, Long> tvShowIds, final LikeStatus[] statuses) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                likeTvShowChunkInTransaction(chunk, likes, tvShowIds, statuses);
+                return;
+            } catch (DeadlockDetectedException e) {
+                //concurrent transaction locked the same TV shows in different order, chunk is rolled back
+                if (attempt == DEADLOCK_RETRIES) {
+                    break;
+                }
+            }
+            try {
+                //random wait, so deadlocked transactions do not retry at the same time again
+                Thread.sleep(ThreadLocalRandom.current().nextInt(DEADLOCK_RETRY_MILLIS << attempt) + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        //statuses set by rolled back attempts are replaced, other chunks are committed independently
+        for (List<Integer> userLikes : chunk.values()) {
+            for (int i : userLikes) {
+                statuses[i] = LikeStatus.CONCURRENT_UPDATE;
+            }
+        }
+    }
+
+    private void likeTvShowChunkInTransaction(final Map<Long, List<Integer>> chunk, final List<LikeRow> likes,
+                                              final Map<String, Long> tvShowIds, final LikeStatus[] statuses) {
+        try ( Transaction tx = database.beginTx() ) {
+            for (Entry<Long, List<Integer>> userLikes : chunk.entrySet()) {
+                Node userNode = database.getNodeById(userLikes.getKey());
+                tx.acquireWriteLock(userNode);
+                User user = new User(userNode);
+                PrimitiveLongSet likedTvShowIds = user.getLikedTvShowIds();
+                for (int i : userLikes.getValue()) {
+                    TvShow tvShow = new TvShow(database.getNodeById(tvShowIds.get(likes.get(i).title)));
+                    statuses[i] = user.addTvShowLike(tvShow, likedTvShowIds)
+                            ? LikeStatus.ADDED : LikeStatus.ALREADY_LIKED;
+                }
+                likedTvShowIds.close();
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * Writes titles of TV shows liked by user one by one while user's likes are iterated in a transaction,
+     * only the given page of them. Throws exception before anything is written if there is no such user.
+     */
+    void writeUserLikedTvShows(final String userMail, final Page page, final TvShowTitleWriter writer)
+            throws IOException {
+        long start = System.nanoTime();
+        try ( Transaction tx = database.beginTx() ) {
+            Node userNode = database.findNode(User.USER_LABEL, User.MAIL, userMail);
+            if (userNode == null) {
                 throw new IOException("No such user in the database with mail: " + userMail);
             }
-            userNodes.close();
+            writer.writeStart();
+            writeLikedTvShowTitles(userNode, page, writer);
+            if (page.isCursorMissing()) {
+                page.restartByPosition();
+                writeLikedTvShowTitles(userNode, page, writer);
+            }
             tx.success();
-            return user.getLikedTvShows();
+        } finally {
+            metrics.recordOperation("writeUserLikedTvShows", start);
+        }
+    }
+
+    private static void writeLikedTvShowTitles(final Node userNode, final Page page, final TvShowTitleWriter writer)
+            throws IOException {
+        for (Relationship like : userNode.getRelationships(RelationType.LIKES, Direction.OUTGOING)) {
+            if (page.skip(like.getId())) {
+                continue;
+            }
+            if (page.isFull()) {
+                writer.writeNextCursor(page.getNextCursor());
+                return;
+            }
+            writer.writeTitle(new TvShow(like.getEndNode()).getName());
+            page.written(like.getId());
         }
     }
 
-    List<String> getShowsAiredByDate(final String airedDate) {
+    /**
+     * Writes titles of TV shows released on the day (days since 1970-01-01) one by one while index lookup
+     * is iterated in a transaction, only the given page of them. Until property migration is complete,
+     * dates stored as strings are looked up too.
+     */
+    void writeShowsAiredByDate(final long airedDate, final Page page, final TvShowTitleWriter writer)
+            throws IOException {
+        long start = System.nanoTime();
         try ( Transaction tx = database.beginTx() ) {
-            ResourceIterator<Node> showNodes = database.findNodes(TvShow.TV_SHOW_LABEL, TvShow.RELEASE_DATE, airedDate);
-            List<String> showList = new ArrayList<>();
-            while (showNodes.hasNext()) {
-                showList.add(new TvShow(showNodes.next()).getName());
+            writer.writeStart();
+            writeAiredTvShowTitles(airedDate, page, writer);
+            if (page.isCursorMissing()) {
+                page.restartByPosition();
+                writeAiredTvShowTitles(airedDate, page, writer);
             }
-            showNodes.close();
             tx.success();
-            return showList;
+        } finally {
+            metrics.recordOperation("writeShowsAiredByDate", start);
         }
     }
 
-    Map<String,Long> getShowRecommendationsForUser(final String mail) {
-        String query = getRecommendationsCipherQuery(mail, 10);
+    private void writeAiredTvShowTitles(final long airedDate, final Page page, final TvShowTitleWriter writer)
+            throws IOException {
+        writeTvShowTitles(database.findNodes(TvShow.TV_SHOW_LABEL, TvShow.RELEASE_DATE, airedDate), page, writer);
+        if (!rangeIndexes.isPopulated() && !page.isFinished()) {
+            writeTvShowTitles(database.findNodes(TvShow.TV_SHOW_LABEL, TvShow.RELEASE_DATE,
+                                                 TvShow.toDateString(airedDate)), page, writer);
+        }
+    }
+
+    /**
+     * Writes titles of TV shows released between the days (inclusive, null leaves the range open) one by one
+     * while release date index range is read in a transaction. Until property migration is complete, TV shows
+     * are scanned instead.
+     */
+    void writeShowsAiredBetween(final Long fromDate, final Long toDate, final TvShowTitleWriter writer)
+            throws IOException {
+        long start = System.nanoTime();
         try ( Transaction tx = database.beginTx() ) {
-            Result result = database.execute(query);
-
-            Map<String,Long> map = new HashMap<>();
-            while ( result.hasNext() )
-            {
-                Long likes = -1L;
-                String title = "";
-                Map<String,Object> row = result.next();
-                for ( Entry<String,Object> column : row.entrySet() ) {
-                    if (column.getKey().equals("showlikes")) {
-                        likes = (Long) column.getValue();
-                    } else {
-                        title = (String) column.getValue();
+            writer.writeStart();
+            if (rangeIndexes.isPopulated()) {
+                writeTvShowTitles(rangeIndexes.findTvShowsByReleaseDate(fromDate, toDate), writer);
+            } else {
+                try ( ResourceIterator<Node> showNodes = database.findNodes(TvShow.TV_SHOW_LABEL) ) {
+                    while (showNodes.hasNext()) {
+                        TvShow tvShow = new TvShow(showNodes.next());
+                        Long releaseDate = tvShow.getReleaseDateValue();
+                        if (releaseDate != null && (fromDate == null || releaseDate >= fromDate)
+                                && (toDate == null || releaseDate <= toDate)) {
+                            writer.writeTitle(tvShow.getName());
+                        }
                     }
                 }
-                if (likes == -1L || title.equals("")) {
-                    continue;
-                }
-                map.put(title, likes);
             }
             tx.success();
-            return map;
+        } finally {
+            metrics.recordOperation("writeShowsAiredBetween", start);
         }
     }
 
-    Map<String,Long> getShowRecommendationsForUser(final String mail, final int ageDifference) {
-        String query = getRecommendationCipherQueryForAge(mail, 10, ageDifference);
+    /**
+     * Writes titles of TV shows on air on the day (released on or before it and not ended before it),
+     * ordered by release date. TV shows are found in air interval index.
+     */
+    void writeShowsOnAir(final long day, final TvShowTitleWriter writer) throws IOException {
+        long start = System.nanoTime();
+        long[] tvShowIds = onAirIndex.findOnAir(day);
         try ( Transaction tx = database.beginTx() ) {
-            Result result = database.execute(query);
-
-            Map<String,Long> map = new HashMap<>();
-            while ( result.hasNext() )
-            {
-                Long likes = -1L;
-                String title = "";
-                Map<String,Object> row = result.next();
-                for ( Entry<String,Object> column : row.entrySet() ) {
-                    if (column.getKey().equals("showlikes")) {
-                        likes = (Long) column.getValue();
-                    } else {
-                        title = (String) column.getValue();
-                    }
+            writer.writeStart();
+            for (long tvShowId : tvShowIds) {
+                try {
+                    writer.writeTitle(new TvShow(database.getNodeById(tvShowId)).getName());
+                } catch (NotFoundException e) {
+                    //TV show was deleted after index was read
                 }
-                if (likes == -1L || title.equals("")) {
+            }
+            tx.success();
+        } finally {
+            metrics.recordOperation("writeShowsOnAir", start);
+        }
+    }
+
+    private static void writeTvShowTitles(final ResourceIterator<Node> showNodes, final TvShowTitleWriter writer)
+            throws IOException {
+        writeTvShowTitles(showNodes, Page.all(), writer);
+    }
+
+    private static void writeTvShowTitles(final ResourceIterator<Node> showNodes, final Page page,
+                                          final TvShowTitleWriter writer) throws IOException {
+        try {
+            while (showNodes.hasNext()) {
+                Node showNode = showNodes.next();
+                if (page.skip(showNode.getId())) {
                     continue;
                 }
-                map.put(title, likes);
+                if (page.isFull()) {
+                    writer.writeNextCursor(page.getNextCursor());
+                    return;
+                }
+                writer.writeTitle(new TvShow(showNode).getName());
+                page.written(showNode.getId());
             }
+        } finally {
+            showNodes.close();
+        }
+    }
+
+    /**
+     * Gets TV show recommendations by users that liked user's TV shows, ordered from the best. If there are none,
+     * gets the most liked TV shows that user does not like. Enabled profile records steps of the run; cached
+     * recommendations are not read then, so the steps are always those of computing them.
+     */
+    Recommendations getShowRecommendationsForUser(final String mail, final Profile profile) {
+        long start = System.nanoTime();
+        try ( Transaction tx = database.beginTx() ) {
+            Node userNode = database.findNode(User.USER_LABEL, User.MAIL, mail);
+            //index entry is read even if there is no user
+            long stepStart = profile.record("UserIndexSeek", userNode == null ? 0 : 1, 1, start);
+            Recommendations recommendations;
+            if (userNode == null) {
+                recommendations = new Recommendations(new LinkedHashMap<String, Long>(), false);
+            } else {
+                recommendations = profile.isEnabled() ? null : recommendationCache.get(userNode.getId());
+                if (recommendations == null) {
+                    long cacheVersion = recommendationCache.getVersion();
+                    PrimitiveLongSet likedTvShowIds = new User(userNode).getLikedTvShowIds();
+                    //one relationship record per like, it has the id of the TV show node
+                    profile.record("ExpandLikes", likedTvShowIds.size(), likedTvShowIds.size(), stepStart);
+                    recommendations = recommendationEngine.recommendByCoLikes(likedTvShowIds, RECOMMENDATION_LIMIT,
+                                                                              profile);
+                    if (recommendations.getTvShows().isEmpty()) {
+                        recommendations = recommendationEngine.recommendByPopularity(likedTvShowIds,
+                                                                                     RECOMMENDATION_LIMIT, profile);
+                    }
+                    recommendationCache.put(userNode.getId(), recommendations, likedTvShowIds, cacheVersion);
+                    likedTvShowIds.close();
+                }
+            }
+            tx.success();
+            return recommendations;
+        } finally {
+            metrics.recordOperation("getShowRecommendationsForUser", start);
+        }
+    }
+
+    /**
+     * Gets up to <code>limit</code> most liked TV shows with their like counts, ordered from the most liked.
+     * Like counts are read from the list of the most liked TV shows and not counted.
+     */
+    Map<String, Long> getTopTvShows(final int limit) {
+        long start = System.nanoTime();
+        try ( Transaction tx = database.beginTx() ) {
+            Map<String, Long> tvShows = recommendationEngine.toTitles(
+                    topTvShows.getTop(limit, Primitive.longSet()));
             tx.success();
-            return map;
+            return tvShows;
+        } finally {
+            metrics.recordOperation("getTopTvShows", start);
+        }
+    }
+
+    /**
+     * Gets up to <code>limit</code> TV shows with the most likes created in the last <code>windowMinutes</code>
+     * with counts of those likes, ordered from the most liked.
+     */
+    Map<String, Long> getTrendingTvShows(final int windowMinutes, final int limit) {
+        long start = System.nanoTime();
+        try ( Transaction tx = database.beginTx() ) {
+            Map<String, Long> tvShows = recommendationEngine.toTitles(
+                    trendingTvShows.getTrending(windowMinutes, limit));
+            tx.success();
+            return tvShows;
+        } finally {
+            metrics.recordOperation("getTrendingTvShows", start);
+        }
+    }
+
+    /**
+     * Validated user data for batch creation.
+     */
+    static class UserRow {
+        private final String mail;
+        private final int age;
+        private final String gender;
+
+        UserRow(String mail, int age, String gender) {
+            this.mail = mail;
+            this.age = age;
+            this.gender = gender;
         }
     }
 
-    private String getRecommendationsCipherQuery(final String mail, final int limit) {
-        return String.format("MATCH (user:PERSON {mail:\"%s\"})-[:LIKES]->(tvshows:TV_SHOW)<-[likes:LIKES]-(otherusers:PERSON),\n" +
-                            "(otherusers)-[:LIKES]->(othershows)\n" +
-                            "WHERE NOT (user)-[:LIKES]->(othershows)\n" +
-                            "RETURN DISTINCT othershows.title, count(distinct likes) as showlikes\n" +
-                            "ORDER BY showlikes DESC\n" +
-                            "LIMIT %d", mail, limit);
+    /**
+     * Validated TV show like data for batch creation.
+     */
+    static class LikeRow {
+        private final String mail;
+        private final String title;
+
+        LikeRow(String mail, String title) {
+            this.mail = mail;
+            this.title = title;
+        }
     }
 
-    private String getRecommendationCipherQueryForAge(final String mail, final int limit, final int ageDifference) {
-        return String.format("MATCH (mainuser:PERSON {mail:\"%s\"}), (user:PERSON)-[likes:LIKES]->(tvshows:TV_SHOW)\n" +
-                            "WHERE NOT (mainuser)-[:LIKES]->(tvshows)\n" +
-                            "AND (TOINT(user.age) >=  TOINT(mainuser.age) - %d)\n" +
-                            "AND (TOINT(user.age) <=  TOINT(mainuser.age) + %d)\n" +
-                            "RETURN DISTINCT tvshows.title, count(distinct likes) as showlikes\n" +
-                            "ORDER BY showlikes DESC\n" +
-                            "LIMIT %d", mail, ageDifference, ageDifference, limit);
+    /**
+     * Page of a list read in iteration order. Cursor is an opaque token with node or relationship id of the last
+     * item of the previous page and its position, items are skipped by id until that item is passed, without
+     * reading their properties. If that item was deleted meanwhile, items are skipped by position instead.
+     * Iteration stops as soon as the page is full.
+     */
+    static class Page {
+        /** Max count of items in a page. */
+        static final int MAX_LIMIT = 1000;
+        /** Count of items in a page if only cursor is given. */
+        static final int DEFAULT_LIMIT = 100;
+
+        private final int limit;
+        /** Id of the last item of the previous page, -1 for the first page. */
+        private final long afterId;
+        /** Count of items up to and including the last item of the previous page. */
+        private final long afterPosition;
+        private boolean byPosition;
+        private boolean passedCursor;
+        private long position;
+        private int written;
+        private long lastId;
+        private long lastPosition;
+        private boolean finished;
+
+        private Page(int limit, long afterId, long afterPosition) {
+            this.limit = limit;
+            this.afterId = afterId;
+            this.afterPosition = afterPosition;
+            this.passedCursor = afterId < 0;
+        }
+
+        /**
+         * Creates page of all items.
+         */
+        static Page all() {
+            return new Page(Integer.MAX_VALUE, -1, 0);
+        }
+
+        /**
+         * Creates page of up to <code>limit</code> items after the cursor, first page if cursor is null.
+         */
+        static Page after(final int limit, final String cursor) throws IOException {
+            if (limit < 1 || limit > MAX_LIMIT) {
+                throw new IOException(String.format("Limit must be between 1 and %d", MAX_LIMIT));
+            }
+            if (cursor == null) {
+                return new Page(limit, -1, 0);
+            }
+            String[] parts = cursor.split("-");
+            try {
+                if (parts.length == 2) {
+                    long afterId = Long.parseLong(parts[0], Character.MAX_RADIX);
+                    long afterPosition = Long.parseLong(parts[1], Character.MAX_RADIX);
+                    if (afterId >= 0 && afterPosition > 0) {
+                        return new Page(limit, afterId, afterPosition);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                //reported below
+            }
+            throw new IOException("Invalid cursor: " + cursor);
+        }
+
+        /**
+         * Checks if item is before the cursor and must be skipped. Called for every item in iteration order.
+         */
+        private boolean skip(final long id) {
+            position++;
+            if (passedCursor) {
+                return false;
+            }
+            if (byPosition) {
+                passedCursor = position > afterPosition;
+                return !passedCursor;
+            }
+            passedCursor = id == afterId;
+            return true;
+        }
+
+        private boolean isFull() {
+            return written == limit;
+        }
+
+        private void written(final long id) {
+            written++;
+            lastId = id;
+            lastPosition = position;
+        }
+
+        /**
+         * Gets cursor of the next page and marks this page finished.
+         */
+        private String getNextCursor() {
+            finished = true;
+            return Long.toString(lastId, Character.MAX_RADIX) + "-" + Long.toString(lastPosition, Character.MAX_RADIX);
+        }
+
+        private boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * Checks if all items were skipped because the last item of the previous page was not found.
+         */
+        private boolean isCursorMissing() {
+            return !passedCursor && !byPosition;
+        }
+
+        /**
+         * Prepares to iterate items again and skip them by cursor position.
+         */
+        private void restartByPosition() {
+            byPosition = true;
+            position = 0;
+        }
     }
 
+    /**
+     * Receives TV show titles while they are read, so they do not have to be collected.
+     */
+    interface TvShowTitleWriter {
+        /** Called once, after the lookup has succeeded and before the first title. */
+        void writeStart() throws IOException;
+
+        void writeTitle(String title) throws IOException;
+
+        /** Called after the last title if the page is full and there are more titles. */
+        void writeNextCursor(String cursor) throws IOException;
+    }
 }
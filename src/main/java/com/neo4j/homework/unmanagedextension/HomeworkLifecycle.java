@@ -0,0 +1,145 @@
+package com.neo4j.homework.unmanagedextension;
+
+import org.apache.commons.configuration.Configuration;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.server.plugins.Injectable;
+import org.neo4j.server.plugins.PluginLifecycle;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Extension lifecycle. Prepares the database when the extension is loaded by the server and provides
+ * server-scoped objects that are injected in the web service with <code>@Context</code>.
+ */
+public class HomeworkLifecycle implements PluginLifecycle {
+    /** Server configuration key of max count of users in recommendation cache. */
+    static final String RECOMMENDATION_CACHE_SIZE = "com.neo4j.homework.recommendation_cache_size";
+    /** Server configuration key of time in seconds after which cached recommendations expire. */
+    static final String RECOMMENDATION_CACHE_TTL = "com.neo4j.homework.recommendation_cache_ttl_seconds";
+    /** Server configuration key of max count of co-like index entries, index is dropped above it. */
+    static final String CO_LIKE_INDEX_MAX_ENTRIES = "com.neo4j.homework.co_like_index_max_entries";
+
+    private GraphDatabaseService database;
+    private CoLikeIndex coLikeIndex;
+    private RecommendationCache recommendationCache;
+    private OnAirIndex onAirIndex;
+    private LikeFilters likeFilters;
+    private TopTvShows topTvShows;
+    private TrendingTvShows trendingTvShows;
+    private PropertyMigration propertyMigration;
+    private RangeIndexes rangeIndexes;
+
+    @Override
+    public Collection<Injectable<?>> start(final GraphDatabaseService database, final Configuration config) {
+        this.database = database;
+        SchemaInitializer schemaInitializer = new SchemaInitializer(database);
+        schemaInitializer.initialize();
+
+        //string ages and dates are migrated in background, until then range reads fall back to label scans
+        rangeIndexes = new RangeIndexes(database);
+        rangeIndexes.initialize();
+        database.registerTransactionEventHandler(rangeIndexes);
+        propertyMigration = new PropertyMigration(database, rangeIndexes);
+        Thread migrationThread = new Thread(propertyMigration, "homework-property-migration");
+        migrationThread.setDaemon(true);
+        migrationThread.start();
+
+        //co-like index invalidates cached recommendations of users whose co-like scores it has changed
+        recommendationCache = new RecommendationCache(config.getInt(RECOMMENDATION_CACHE_SIZE, 10000),
+                                                      config.getLong(RECOMMENDATION_CACHE_TTL, 300));
+        database.registerTransactionEventHandler(recommendationCache);
+
+        //handler is registered before the index is built in background, so no likes are missed; recommendations
+        //are by the most liked TV shows until it is ready
+        coLikeIndex = new CoLikeIndex(database, recommendationCache,
+                                      config.getLong(CO_LIKE_INDEX_MAX_ENTRIES, 20000000L));
+        database.registerTransactionEventHandler(coLikeIndex);
+        Thread coLikeThread = new Thread(coLikeIndex, "homework-co-like-index");
+        coLikeThread.setDaemon(true);
+        coLikeThread.start();
+
+        onAirIndex = new OnAirIndex(database);
+        onAirIndex.build();
+        database.registerTransactionEventHandler(onAirIndex);
+
+        likeFilters = new LikeFilters();
+        database.registerTransactionEventHandler(likeFilters);
+
+        //like counts are stored before commit, TV shows without a stored count are counted when the list is built
+        topTvShows = new TopTvShows(database);
+        topTvShows.build();
+        database.registerTransactionEventHandler(topTvShows);
+
+        trendingTvShows = new TrendingTvShows(database);
+        trendingTvShows.build();
+        database.registerTransactionEventHandler(trendingTvShows);
+
+        //domain service, response mapper and metrics are thread-safe, web service resources created per request
+        //share them
+        Metrics metrics = new Metrics();
+        Collection<Injectable<?>> injectables = new ArrayList<>();
+        injectables.add(new SingletonInjectable<>(DomainService.class,
+                new DomainService(database, coLikeIndex, recommendationCache, rangeIndexes, onAirIndex,
+                                  likeFilters, topTvShows, trendingTvShows, metrics)));
+        injectables.add(new SingletonInjectable<>(SchemaInitializer.class, schemaInitializer));
+        injectables.add(new SingletonInjectable<>(RecommendationCache.class, recommendationCache));
+        injectables.add(new SingletonInjectable<>(PropertyMigration.class, propertyMigration));
+        injectables.add(new SingletonInjectable<>(CoLikeIndex.class, coLikeIndex));
+        injectables.add(new SingletonInjectable<>(ResponseMapper.class, new ResponseMapper()));
+        injectables.add(new SingletonInjectable<>(Metrics.class, metrics));
+        return injectables;
+    }
+
+    @Override
+    public void stop() {
+        if (propertyMigration != null) {
+            propertyMigration.stop();
+        }
+        if (trendingTvShows != null) {
+            database.unregisterTransactionEventHandler(trendingTvShows);
+        }
+        if (topTvShows != null) {
+            database.unregisterTransactionEventHandler(topTvShows);
+        }
+        if (likeFilters != null) {
+            database.unregisterTransactionEventHandler(likeFilters);
+        }
+        if (onAirIndex != null) {
+            database.unregisterTransactionEventHandler(onAirIndex);
+        }
+        if (recommendationCache != null) {
+            database.unregisterTransactionEventHandler(recommendationCache);
+        }
+        if (coLikeIndex != null) {
+            database.unregisterTransactionEventHandler(coLikeIndex);
+            coLikeIndex.stop();
+        }
+        if (rangeIndexes != null) {
+            database.unregisterTransactionEventHandler(rangeIndexes);
+        }
+    }
+
+    /**
+     * Injectable that always provides the same object.
+     */
+    private static class SingletonInjectable<T> implements Injectable<T> {
+        private final Class<T> type;
+        private final T value;
+
+        private SingletonInjectable(Class<T> type, T value) {
+            this.type = type;
+            this.value = value;
+        }
+
+        @Override
+        public T getValue() {
+            return value;
+        }
+
+        @Override
+        public Class<T> getType() {
+            return type;
+        }
+    }
+}
@@ -1,40 +1,79 @@
 package com.neo4j.homework.unmanagedextension;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.Exception;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
+import com.neo4j.homework.unmanagedextension.domain.LikeStatus;
 import com.neo4j.homework.unmanagedextension.domain.TvShow;
 import com.neo4j.homework.unmanagedextension.utils.JsonUtils;
+import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.node.ArrayNode;
 import org.codehaus.jackson.node.ObjectNode;
-import org.neo4j.graphdb.GraphDatabaseService;
 
-//extension root path
+//extension root path, response encoding is chosen from Accept header
 @Path("/neueda")
+@Produces({MediaType.TEXT_PLAIN, MediaType.APPLICATION_JSON, ResponseMapper.APPLICATION_SMILE})
 public class HomeworkWebService
 {
     private final DomainService domainService;
-    private final ObjectMapper objectMapper;
+    private final SchemaInitializer schemaInitializer;
+    private final RecommendationCache recommendationCache;
+    private final PropertyMigration propertyMigration;
+    private final CoLikeIndex coLikeIndex;
+    private final ResponseMapper responseMapper;
+    private final ResponseMapper.ResponseFormat responseFormat;
+    private final boolean gzipAccepted;
+    private final Metrics metrics;
+    /** Time when request handling started. */
+    private final long startNanos = System.nanoTime();
+    /** Path template of the requested endpoint, label of its metrics. */
+    private String endpoint;
+    /** Recorded stages of the request in Server-Timing header format. */
+    private final StringBuilder serverTiming = new StringBuilder();
 
-    public HomeworkWebService(@Context GraphDatabaseService database)
+    /**
+     * Resource is created for every request, so it only keeps server-scoped objects created on extension start
+     * and response encoding accepted by the client. Time of every request is recorded in metrics, and stages
+     * of the request are also sent back in Server-Timing header.
+     */
+    public HomeworkWebService(@Context DomainService domainService, @Context SchemaInitializer schemaInitializer,
+                              @Context RecommendationCache recommendationCache,
+                              @Context PropertyMigration propertyMigration, @Context CoLikeIndex coLikeIndex,
+                              @Context ResponseMapper responseMapper, @Context Metrics metrics,
+                              @Context HttpHeaders headers)
     {
-        this.domainService = new DomainService(database);
-        this.objectMapper = new ObjectMapper();
+        this.domainService = domainService;
+        this.schemaInitializer = schemaInitializer;
+        this.recommendationCache = recommendationCache;
+        this.propertyMigration = propertyMigration;
+        this.coLikeIndex = coLikeIndex;
+        this.responseMapper = responseMapper;
+        this.metrics = metrics;
+        this.responseFormat = responseMapper.getResponseFormat(headers);
+        this.gzipAccepted = responseMapper.isGzipAccepted(headers);
     }
 
     private Response createResponse(final boolean isOkResponse, final int httpCode, final String jsonMessage) {
@@ -45,42 +84,196 @@ public class HomeworkWebService
                                     final ObjectNode messageNode) {
         ObjectNode node;
         if (messageNode != null) {
-            node = JsonUtils.createResponseNode(isOkResponse, httpCode, messageNode, objectMapper.createObjectNode());
+            node = JsonUtils.createResponseNode(isOkResponse, httpCode, messageNode, responseMapper.createObjectNode());
         } else {
-            node = JsonUtils.createResponseNode(isOkResponse, httpCode, jsonMessage, objectMapper.createObjectNode());
+            node = JsonUtils.createResponseNode(isOkResponse, httpCode, jsonMessage, responseMapper.createObjectNode());
         }
 
+        long serializationStart = System.nanoTime();
         try {
-            return Response.ok().entity(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(node)).build();
+            byte[] entity = responseMapper.write(node, responseFormat);
+            boolean gzip = gzipAccepted && entity.length >= ResponseMapper.GZIP_MIN_SIZE;
+            if (gzip) {
+                entity = ResponseMapper.gzip(entity);
+            }
+            recordStage("serialization", serializationStart);
+            serverTiming.append(serverTiming.length() == 0 ? "" : ", ").append("total;dur=")
+                .append(toMillis(System.nanoTime() - startNanos));
+            return createResponseBuilder(entity, gzip).header("Server-Timing", serverTiming.toString()).build();
         } catch (IOException e1) {
+            metrics.recordError(endpoint, e1);
             return Response.status(Status.INTERNAL_SERVER_ERROR).entity("Server error: " + e1.getMessage()).build();
+        } finally {
+            metrics.recordEndpoint(endpoint, startNanos);
         }
     }
 
+    /**
+     * Records stage of the request that started at <code>stageStart</code> in metrics and Server-Timing header.
+     * Returns current time, start of the next stage.
+     */
+    private long recordStage(final String stage, final long stageStart) {
+        metrics.recordStage(endpoint, stage, stageStart);
+        long now = System.nanoTime();
+        serverTiming.append(serverTiming.length() == 0 ? "" : ", ").append(stage).append(";dur=")
+            .append(toMillis(now - stageStart));
+        return now;
+    }
+
+    private static String toMillis(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * Creates response with error reason and counts the error in metrics.
+     */
+    private Response createErrorResponse(final Exception e) {
+        metrics.recordError(endpoint, e);
+        return createResponse(false, 200, e.getMessage());
+    }
+
+    /**
+     * Creates response that writes TV show titles to the output stream while the query reads them, so titles are
+     * not collected in memory. Response is the same as "tvshows" array in message node. If the query fails before
+     * the first title, error response is written instead. Request time is recorded when the response is written.
+     */
+    private Response createTvShowTitlesResponse(final TvShowTitlesQuery query) {
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(final OutputStream outputStream) throws IOException {
+                OutputStream responseStream = gzipAccepted ? new GZIPOutputStream(outputStream) : outputStream;
+                JsonGenerator generator = responseMapper.createJsonGenerator(responseStream, responseFormat);
+                TvShowTitlesJsonWriter writer = new TvShowTitlesJsonWriter(generator);
+                try {
+                    query.run(writer);
+                    writer.writeEnd();
+                } catch (IOException e) {
+                    metrics.recordError(endpoint, e);
+                    if (writer.started) {
+                        //response is partially written, it can only be broken off
+                        throw e;
+                    }
+                    writer.writeError(e.getMessage());
+                } finally {
+                    metrics.recordEndpoint(endpoint, startNanos);
+                }
+                generator.close();
+            }
+        };
+        //size is not known before writing, lists are compressed whenever client accepts it
+        return createResponseBuilder(output, gzipAccepted).build();
+    }
+
+    /**
+     * Creates page from optional <code>limit</code> and <code>after</code> query parameters, all items if neither
+     * is given.
+     */
+    private static DomainService.Page createPage(final Integer limit, final String after) throws IOException {
+        if (limit == null && after == null) {
+            return DomainService.Page.all();
+        }
+        return DomainService.Page.after(limit == null ? DomainService.Page.DEFAULT_LIMIT : limit, after);
+    }
+
+    private Response.ResponseBuilder createResponseBuilder(final Object entity, final boolean gzip) {
+        Response.ResponseBuilder builder = Response.ok(entity, responseFormat.getMediaType())
+                .header("Vary", HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            builder.header("Content-Encoding", "gzip");
+        }
+        return builder;
+    }
+
     /**
      * Creates user only if there is not mail conflict in the database and JSON parsing is successful (is correct).
      */
     @POST
     @Consumes({MediaType.APPLICATION_FORM_URLENCODED, MediaType.APPLICATION_JSON})
-    @Produces(MediaType.TEXT_PLAIN)
     @Path("/user/add")
     public Response addUserToDatabase(final String userJsonData) {
+        endpoint = "/user/add";
         try {
+            long parsingStart = System.nanoTime();
             JsonNode parentNode = JsonUtils.getAndCheckJsonNode(userJsonData, 3);
 
             String mail = JsonUtils.getUserMail(parentNode);
             String gender = JsonUtils.validateGender(parentNode);
-            String age = JsonUtils.validateAge(parentNode);
+            int age = Integer.parseInt(JsonUtils.validateAge(parentNode));
+            recordStage("parsing", parsingStart);
 
-            if (domainService.userExists(mail)) {
+            if (!domainService.createUser(mail, age, gender)) {
                 String error = "User with mail [%s] (mail must be unique) is already in the database";
                 throw new IOException(String.format(error, mail));
-            } else {
-                domainService.createUser(mail, age, gender);
             }
             return createResponse(true, 200, "User created");
         } catch (Exception e) {
-            return createResponse(false, 200, e.getMessage());
+            return createErrorResponse(e);
+        }
+    }
+
+    /**
+     * Creates users from JSON array. Each user is validated and created the same way as a single user,
+     * users are committed in chunks of <code>chunkSize</code>. Response has status for each user.
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("/user/add/batch")
+    public Response addUsersToDatabase(final String usersJsonData,
+                                       final @QueryParam("chunkSize")
+                                       @DefaultValue("" + DomainService.DEFAULT_CHUNK_SIZE) int chunkSize) {
+        endpoint = "/user/add/batch";
+        try {
+            if (chunkSize < 1 || chunkSize > DomainService.MAX_CHUNK_SIZE) {
+                String error = "Chunk size must be between 1 and %d";
+                throw new IOException(String.format(error, DomainService.MAX_CHUNK_SIZE));
+            }
+            long parsingStart = System.nanoTime();
+            JsonNode usersNode = JsonUtils.getAndCheckJsonArray(usersJsonData);
+
+            ArrayNode results = responseMapper.createArrayNode();
+            List<DomainService.UserRow> validUsers = new ArrayList<>();
+            List<ObjectNode> validUserResults = new ArrayList<>();
+            for (int i = 0; i < usersNode.size(); i++) {
+                ObjectNode result = results.addObject();
+                result.put("index", i);
+                try {
+                    JsonNode userNode = usersNode.get(i);
+                    JsonUtils.checkJsonNodeSize(userNode, 3);
+                    String mail = JsonUtils.getUserMail(userNode);
+                    result.put("mail", mail);
+                    String gender = JsonUtils.validateGender(userNode);
+                    int age = Integer.parseInt(JsonUtils.validateAge(userNode));
+                    validUsers.add(new DomainService.UserRow(mail, age, gender));
+                    validUserResults.add(result);
+                } catch (Exception e) {
+                    result.put("statusOk", false);
+                    result.put("message", e.getMessage());
+                }
+            }
+
+            recordStage("parsing", parsingStart);
+
+            List<Boolean> created = domainService.createUsers(validUsers, chunkSize);
+            int createdCount = 0;
+            for (int i = 0; i < created.size(); i++) {
+                ObjectNode result = validUserResults.get(i);
+                if (created.get(i)) {
+                    result.put("statusOk", true);
+                    result.put("message", "User created");
+                    createdCount++;
+                } else {
+                    result.put("statusOk", false);
+                    result.put("message", "User with this mail (mail must be unique) is already in the database");
+                }
+            }
+
+            ObjectNode ob = responseMapper.createObjectNode();
+            ob.put("created", createdCount);
+            ob.put("failed", usersNode.size() - createdCount);
+            ob.put("users", results);
+            return createResponse(true, 200, null, ob);
+        } catch (Exception e) {
+            return createErrorResponse(e);
         }
     }
 
@@ -89,25 +282,26 @@ public class HomeworkWebService
      */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.TEXT_PLAIN)
     @Path("/tvshow/add")
     public Response addTvShowToDatabase(final String tvShowJsonData) {
+        endpoint = "/tvshow/add";
         try {
+            long parsingStart = System.nanoTime();
             JsonNode parentNode = JsonUtils.getAndCheckJsonNode(tvShowJsonData, 3);
             String title = JsonUtils.getTvShowTitle(parentNode);
             String releaseDate = JsonUtils.validateTvShowDate(parentNode, TvShow.RELEASE_DATE);
             String endDate = JsonUtils.validateTvShowDate(parentNode, TvShow.END_DATE);
             JsonUtils.validateEndDateAfterRelease(releaseDate, endDate);
+            recordStage("parsing", parsingStart);
 
-            if (domainService.tvShowExists(title)) {
+            Long endDay = endDate == null ? null : TvShow.toEpochDay(endDate);
+            if (!domainService.createTvShow(title, TvShow.toEpochDay(releaseDate), endDay)) {
                 String error = "TV Show with title [%s] (title must be unique) is already in the database";
                 throw new IOException(String.format(error, title));
-            } else {
-                domainService.createTvShow(title, releaseDate, endDate);
             }
             return createResponse(true, 200, "TV show added");
         } catch (Exception e) {
-            return createResponse(false, 200, e.getMessage());
+            return createErrorResponse(e);
         }
     }
 
@@ -115,24 +309,25 @@ public class HomeworkWebService
      * Gets TV Shows liked by a user only if JSON is parsed (is correct) and user exists.
      */
     @GET
-    @Produces( MediaType.TEXT_PLAIN ) //RESPONSE ENCODING
     @Path("/user/{userMail}/getlikes")
-    public Response findUserLikedTvShows( final @PathParam("userMail") String userMail )
+    public Response findUserLikedTvShows( final @PathParam("userMail") String userMail,
+                                          final @QueryParam("limit") Integer limit,
+                                          final @QueryParam("after") String after )
     {
+        endpoint = "/user/{userMail}/getlikes";
         try {
             if(!JsonUtils.validateUserMail(userMail)) {
                 throw new IOException("Wrong e-mail: " + userMail);
             }
-            List<String> movies = domainService.getUserLikedTvShows(userMail);
-            ObjectNode ob = objectMapper.createObjectNode();
-            ArrayNode an = objectMapper.createArrayNode();
-            for (String tvShow : movies ) {
-                an.add(tvShow);
-            }
-            ob.put("tvshows", an);
-            return createResponse(true, 200, null, ob);
+            final DomainService.Page page = createPage(limit, after);
+            return createTvShowTitlesResponse(new TvShowTitlesQuery() {
+                @Override
+                public void run(final DomainService.TvShowTitleWriter writer) throws IOException {
+                    domainService.writeUserLikedTvShows(userMail, page, writer);
+                }
+            });
         } catch (IOException e) {
-            return createResponse(false, 200, e.getMessage());
+            return createErrorResponse(e);
         }
     }
 
@@ -142,14 +337,16 @@ public class HomeworkWebService
      */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.TEXT_PLAIN)
     @Path("/user/liketvshow")
     public Response likeTvShowByUser( final String jsonDate )
     {
+        endpoint = "/user/liketvshow";
         try {
+            long parsingStart = System.nanoTime();
             JsonNode parentNode = JsonUtils.getAndCheckJsonNode(jsonDate, 2);
             String mail = JsonUtils.getUserMail(parentNode);
             String title = JsonUtils.getTvShowTitle(parentNode);
+            recordStage("parsing", parsingStart);
 
             if(domainService.likeTvShowByUser(mail, title)) {
                 //added like
@@ -159,7 +356,72 @@ public class HomeworkWebService
                 return createResponse(false, 200, "Already liked");
             }
         } catch (Exception e) {
-            return createResponse(false, 200, e.getMessage());
+            return createErrorResponse(e);
+        }
+    }
+
+    /**
+     * Adds TV show likes by users from JSON array. Each like is validated the same way as a single like,
+     * likes are grouped by user and committed in chunks of <code>chunkSize</code>. Response has status for each like.
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("/user/liketvshow/batch")
+    public Response likeTvShowsByUsers(final String likesJsonData,
+                                       final @QueryParam("chunkSize")
+                                       @DefaultValue("" + DomainService.DEFAULT_CHUNK_SIZE) int chunkSize) {
+        endpoint = "/user/liketvshow/batch";
+        try {
+            if (chunkSize < 1 || chunkSize > DomainService.MAX_CHUNK_SIZE) {
+                String error = "Chunk size must be between 1 and %d";
+                throw new IOException(String.format(error, DomainService.MAX_CHUNK_SIZE));
+            }
+            long parsingStart = System.nanoTime();
+            JsonNode likesNode = JsonUtils.getAndCheckJsonArray(likesJsonData);
+
+            ArrayNode results = responseMapper.createArrayNode();
+            List<DomainService.LikeRow> validLikes = new ArrayList<>();
+            List<ObjectNode> validLikeResults = new ArrayList<>();
+            for (int i = 0; i < likesNode.size(); i++) {
+                ObjectNode result = results.addObject();
+                result.put("index", i);
+                try {
+                    JsonNode likeNode = likesNode.get(i);
+                    JsonUtils.checkJsonNodeSize(likeNode, 2);
+                    String mail = JsonUtils.getUserMail(likeNode);
+                    String title = JsonUtils.getTvShowTitle(likeNode);
+                    result.put("mail", mail);
+                    result.put("title", title);
+                    validLikes.add(new DomainService.LikeRow(mail, title));
+                    validLikeResults.add(result);
+                } catch (Exception e) {
+                    result.put("statusOk", false);
+                    result.put("message", e.getMessage());
+                }
+            }
+
+            recordStage("parsing", parsingStart);
+
+            List<LikeStatus> statuses = domainService.likeTvShowsByUsers(validLikes, chunkSize);
+            int addedCount = 0;
+            for (int i = 0; i < statuses.size(); i++) {
+                ObjectNode result = validLikeResults.get(i);
+                LikeStatus status = statuses.get(i);
+                result.put("statusOk", status.isStatusOk());
+                result.put("status", status.name());
+                result.put("message", status.getDescription());
+                if (status == LikeStatus.ADDED) {
+                    addedCount++;
+                }
+            }
+
+            ObjectNode ob = responseMapper.createObjectNode();
+            ob.put("added", addedCount);
+            ob.put("failed", likesNode.size() - addedCount);
+            ob.put("likes", results);
+            return createResponse(true, 200, null, ob);
+        } catch (Exception e) {
+            return createErrorResponse(e);
         }
     }
 
@@ -167,69 +429,309 @@ public class HomeworkWebService
      * Gets TV Shows aired on a specific date.
      */
     @GET
-    @Produces( MediaType.TEXT_PLAIN ) //RESPONSE ENCODING
     @Path("/tvshow/aired/{airDate}")
-    public Response findTvShowsByAirDate( final @PathParam("airDate") String airDate )
+    public Response findTvShowsByAirDate( final @PathParam("airDate") String airDate,
+                                          final @QueryParam("limit") Integer limit,
+                                          final @QueryParam("after") String after )
     {
+        endpoint = "/tvshow/aired/{airDate}";
         try {
             Date airDateObject = JsonUtils.isDateValid(airDate);
-            String airDateApiString = JsonUtils.toApiStringFormat(airDateObject);
-            List<String> tvShows = domainService.getShowsAiredByDate(airDateApiString);
-            ObjectNode ob = objectMapper.createObjectNode();
-            ArrayNode an = objectMapper.createArrayNode();
-            for (String tvShow : tvShows ) {
-                an.add(tvShow);
+            final long airDay = TvShow.toEpochDay(JsonUtils.toApiStringFormat(airDateObject));
+            final DomainService.Page page = createPage(limit, after);
+            return createTvShowTitlesResponse(new TvShowTitlesQuery() {
+                @Override
+                public void run(final DomainService.TvShowTitleWriter writer) throws IOException {
+                    domainService.writeShowsAiredByDate(airDay, page, writer);
+                }
+            });
+        } catch (Exception e) {
+            return createErrorResponse(e);
+        }
+    }
+
+    /**
+     * Gets TV Shows on air on a date: released on or before it and ended on or after it or still running.
+     */
+    @GET
+    @Path("/tvshow/onair/{date}")
+    public Response findTvShowsOnAir(final @PathParam("date") String date) {
+        endpoint = "/tvshow/onair/{date}";
+        try {
+            final long day = TvShow.toEpochDay(JsonUtils.toApiStringFormat(JsonUtils.isDateValid(date)));
+            return createTvShowTitlesResponse(new TvShowTitlesQuery() {
+                @Override
+                public void run(final DomainService.TvShowTitleWriter writer) throws IOException {
+                    domainService.writeShowsOnAir(day, writer);
+                }
+            });
+        } catch (Exception e) {
+            return createErrorResponse(e);
+        }
+    }
+
+    /**
+     * Gets TV Shows aired between two dates (inclusive). One of the dates can be left out.
+     */
+    @GET
+    @Path("/tvshow/aired")
+    public Response findTvShowsByAirDateRange(final @QueryParam("from") String fromDate,
+                                              final @QueryParam("to") String toDate) {
+        endpoint = "/tvshow/aired";
+        try {
+            if (fromDate == null && toDate == null) {
+                throw new IOException("At least one of query parameters [from] and [to] must be given");
+            }
+            final Long fromDay = fromDate == null ? null
+                    : TvShow.toEpochDay(JsonUtils.toApiStringFormat(JsonUtils.isDateValid(fromDate)));
+            final Long toDay = toDate == null ? null
+                    : TvShow.toEpochDay(JsonUtils.toApiStringFormat(JsonUtils.isDateValid(toDate)));
+            if (fromDay != null && toDay != null && fromDay > toDay) {
+                throw new IOException(String.format("Date [%s] is after date [%s]", fromDate, toDate));
+            }
+            return createTvShowTitlesResponse(new TvShowTitlesQuery() {
+                @Override
+                public void run(final DomainService.TvShowTitleWriter writer) throws IOException {
+                    domainService.writeShowsAiredBetween(fromDay, toDay, writer);
+                }
+            });
+        } catch (Exception e) {
+            return createErrorResponse(e);
+        }
+    }
+
+    /**
+     * Gets the most liked TV shows with their like counts.
+     */
+    @GET
+    @Path("/tvshow/top")
+    public Response findTopTvShows(final @QueryParam("limit")
+                                   @DefaultValue("" + DomainService.DEFAULT_TOP_LIMIT) int limit) {
+        endpoint = "/tvshow/top";
+        try {
+            if (limit < 1 || limit > TopTvShows.MAX_TOP) {
+                String error = "Limit must be between 1 and %d";
+                throw new IOException(String.format(error, TopTvShows.MAX_TOP));
+            }
+            ArrayNode an = responseMapper.createArrayNode();
+            for (Map.Entry<String, Long> tvShow : domainService.getTopTvShows(limit).entrySet()) {
+                ObjectNode node = responseMapper.createObjectNode();
+                node.put("show", tvShow.getKey());
+                node.put("likes", tvShow.getValue());
+                an.add(node);
             }
+            ObjectNode ob = responseMapper.createObjectNode();
             ob.put("tvshows", an);
             return createResponse(true, 200, null, ob);
         } catch (Exception e) {
-            return createResponse(false, 200, e.getMessage());
+            return createErrorResponse(e);
         }
     }
 
     /**
-     * Gets TV Shows recommendations for a user.
+     * Gets TV shows with the most likes created in a recent time window, like "15m" or "6h".
+     */
+    @GET
+    @Path("/tvshow/trending")
+    public Response findTrendingTvShows(final @QueryParam("window") @DefaultValue("1h") String window,
+                                        final @QueryParam("limit")
+                                        @DefaultValue("" + DomainService.DEFAULT_TOP_LIMIT) int limit) {
+        endpoint = "/tvshow/trending";
+        try {
+            int windowMinutes = TrendingTvShows.toWindowMinutes(window);
+            if (limit < 1 || limit > TopTvShows.MAX_TOP) {
+                String error = "Limit must be between 1 and %d";
+                throw new IOException(String.format(error, TopTvShows.MAX_TOP));
+            }
+            ArrayNode an = responseMapper.createArrayNode();
+            for (Map.Entry<String, Long> tvShow : domainService.getTrendingTvShows(windowMinutes, limit).entrySet()) {
+                ObjectNode node = responseMapper.createObjectNode();
+                node.put("show", tvShow.getKey());
+                node.put("likes", tvShow.getValue());
+                an.add(node);
+            }
+            ObjectNode ob = responseMapper.createObjectNode();
+            ob.put("window", window);
+            ob.put("tvshows", an);
+            return createResponse(true, 200, null, ob);
+        } catch (Exception e) {
+            return createErrorResponse(e);
+        }
+    }
+
+    /**
+     * Gets TV Shows recommendations for a user. With <code>profile=true</code> recommendations are computed
+     * even if cached and steps of the run are returned next to them.
      */
     @GET
-    @Produces( MediaType.TEXT_PLAIN ) //RESPONSE ENCODING
     @Path("/user/{userMail}/recommendations")
-    public Response findRecommendedTvShowsForUser(final @PathParam("userMail") String userMail) {
+    public Response findRecommendedTvShowsForUser(final @PathParam("userMail") String userMail,
+                                                  final @QueryParam("profile") @DefaultValue("false")
+                                                  boolean profiled) {
+        endpoint = "/user/{userMail}/recommendations";
         try {
+            long stageStart = startNanos;
             if(!JsonUtils.validateUserMail(userMail)) {
                 throw new IOException("Wrong e-mail: " + userMail);
             }
+            stageStart = recordStage("validation", stageStart);
             if (!domainService.userExists(userMail)) {
                 throw new IOException("No such user in the database with mail: " + userMail);
             }
+            stageStart = recordStage("userExists", stageStart);
 
-            Map<String,Long> shows = domainService.getShowRecommendationsForUser(userMail);
-            int ageDifference = 0;
-            boolean isAgeRecommendation = false;
-            while (shows.size() == 0) {
-                isAgeRecommendation = true;
-                ageDifference = ageDifference + 2;
-                if (ageDifference == 50) {
-                    break;
-                }
-                shows = domainService.getShowRecommendationsForUser(userMail, ageDifference);
-            }
+            Profile profile = profiled ? Profile.create() : Profile.NONE;
+            Recommendations recommendations = domainService.getShowRecommendationsForUser(userMail, profile);
+            recordStage("recommendation", stageStart);
 
-            ObjectNode ob = objectMapper.createObjectNode();
-            ArrayNode an = objectMapper.createArrayNode();
-            for (Map.Entry<String, Long> tvShow : shows.entrySet() ) {
-                ObjectNode node = objectMapper.createObjectNode();
+            ObjectNode ob = responseMapper.createObjectNode();
+            ArrayNode an = responseMapper.createArrayNode();
+            for (Map.Entry<String, Long> tvShow : recommendations.getTvShows().entrySet() ) {
+                ObjectNode node = responseMapper.createObjectNode();
                 node.put("show", tvShow.getKey());
                 node.put("likes", tvShow.getValue());
                 an.add(node);
             }
-            if (isAgeRecommendation) {
-                ob.put(String.format("tvshow recommendations by age difference [%d]", ageDifference), an);
+            if (recommendations.isByPopularity()) {
+                ob.put("tvshow recommendations by the most liked shows", an);
             } else {
                 ob.put("tvshow recommendations by users that liked user's shows", an);
             }
+            if (profile.isEnabled()) {
+                ArrayNode steps = responseMapper.createArrayNode();
+                for (Profile.Step step : profile.getSteps()) {
+                    ObjectNode node = responseMapper.createObjectNode();
+                    node.put("operator", step.getOperator());
+                    node.put("rows", step.getRows());
+                    node.put("estimatedReads", step.getEstimatedReads());
+                    node.put("ms", step.getNanos() / (double) TimeUnit.MILLISECONDS.toNanos(1));
+                    steps.add(node);
+                }
+                ob.put("profile", steps);
+            }
             return createResponse(true, 200, null, ob);
         } catch (Exception e) {
-            return createResponse(false, 200, e.getMessage());
+            return createErrorResponse(e);
+        }
+    }
+
+    /**
+     * Gets state of indexes and uniqueness constraints created on extension start, state of property migration
+     * and of co-like index.
+     */
+    @GET
+    @Path("/admin/schema")
+    public Response findSchemaStatus() {
+        endpoint = "/admin/schema";
+        try {
+            Map<String, String> status = schemaInitializer.getSchemaStatus();
+            ObjectNode ob = responseMapper.createObjectNode();
+            ObjectNode rules = responseMapper.createObjectNode();
+            for (Map.Entry<String, String> rule : status.entrySet()) {
+                rules.put(rule.getKey(), rule.getValue());
+            }
+            ob.put("schema", rules);
+            ObjectNode migration = responseMapper.createObjectNode();
+            migration.put("state", propertyMigration.getState());
+            for (Map.Entry<String, Long> count : propertyMigration.getCounts().entrySet()) {
+                migration.put(count.getKey(), count.getValue());
+            }
+            ob.put("propertyMigration", migration);
+            ObjectNode coLikes = responseMapper.createObjectNode();
+            coLikes.put("state", coLikeIndex.getState());
+            coLikes.put("entries", coLikeIndex.getEntries());
+            ob.put("coLikeIndex", coLikes);
+            return createResponse(schemaInitializer.isSchemaOnline(status), 200, null, ob);
+        } catch (Exception e) {
+            return createErrorResponse(e);
+        }
+    }
+
+    /**
+     * Gets recommendation cache statistics.
+     */
+    @GET
+    @Path("/admin/cache")
+    public Response findRecommendationCacheStatistics() {
+        endpoint = "/admin/cache";
+        Map<String, Long> statistics = recommendationCache.getStatistics();
+        ObjectNode ob = responseMapper.createObjectNode();
+        ObjectNode cache = responseMapper.createObjectNode();
+        for (Map.Entry<String, Long> statistic : statistics.entrySet()) {
+            cache.put(statistic.getKey(), statistic.getValue());
+        }
+        long requests = statistics.get("hits") + statistics.get("misses");
+        cache.put("hitRate", requests == 0 ? 0.0 : (double) statistics.get("hits") / requests);
+        ob.put("recommendationCache", cache);
+        return createResponse(true, 200, null, ob);
+    }
+
+    /**
+     * Gets latency histograms and error counts in Prometheus text format.
+     */
+    @GET
+    @Path("/metrics")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response findMetrics() {
+        return Response.ok(metrics.toText(), Metrics.TEXT_FORMAT).build();
+    }
+
+    /**
+     * Reads TV show titles into a writer.
+     */
+    private interface TvShowTitlesQuery {
+        void run(DomainService.TvShowTitleWriter writer) throws IOException;
+    }
+
+    /**
+     * Writes response with "tvshows" array in message node, one title at a time, and "next" page cursor
+     * if there is one.
+     */
+    private static class TvShowTitlesJsonWriter implements DomainService.TvShowTitleWriter {
+        private final JsonGenerator generator;
+        private boolean started;
+        /** Cursor of the next page, written after titles. */
+        private String nextCursor;
+
+        private TvShowTitlesJsonWriter(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        public void writeStart() throws IOException {
+            started = true;
+            generator.writeStartObject();
+            generator.writeBooleanField("statusOk", true);
+            generator.writeNumberField("statusCode", 200);
+            generator.writeObjectFieldStart("message");
+            generator.writeArrayFieldStart("tvshows");
+        }
+
+        @Override
+        public void writeTitle(final String title) throws IOException {
+            generator.writeString(title);
+        }
+
+        @Override
+        public void writeNextCursor(final String cursor) {
+            nextCursor = cursor;
+        }
+
+        private void writeEnd() throws IOException {
+            generator.writeEndArray();
+            if (nextCursor != null) {
+                generator.writeStringField("next", nextCursor);
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+
+        private void writeError(final String message) throws IOException {
+            generator.writeStartObject();
+            generator.writeBooleanField("statusOk", false);
+            generator.writeNumberField("statusCode", 200);
+            generator.writeStringField("message", message);
+            generator.writeEndObject();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,162 @@
+package com.neo4j.homework.unmanagedextension;
+
+import com.neo4j.homework.unmanagedextension.domain.RelationType;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bloom filters of TV shows liked by users with many likes. If both the user and the TV show have many likes,
+ * checking for an existing like reads many relationships from either side, the filter answers "not liked" without
+ * reading them. Filters may only give false positives: they are built from user's likes under the user's lock
+ * and every created like is added to them, deleted likes stay in them.
+ */
+public class LikeFilters implements TransactionEventHandler<Void> {
+    /** Users and TV shows with fewer likes are checked by reading relationships. */
+    static final int MIN_LIKES = 1000;
+    /** Max count of users with filters, least recently used filters are dropped. */
+    private static final int MAX_FILTERS = 10000;
+
+    /** Filters by user node id, in access order. Guarded by this. */
+    private final LinkedHashMap<Long, BloomFilter> filters = new LinkedHashMap<Long, BloomFilter>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, BloomFilter> eldest) {
+            return size() > MAX_FILTERS;
+        }
+    };
+
+    /**
+     * Checks if user might like the TV show. Returns true if relationships must be read to know it.
+     * Caller must hold user's write lock, so no other like of the user is created while the filter is built.
+     * Must be called in a transaction.
+     */
+    boolean mightLike(final Node userNode, final Node tvShowNode) {
+        if (userNode.getDegree(RelationType.LIKES, Direction.OUTGOING) < MIN_LIKES
+                || tvShowNode.getDegree(RelationType.LIKES, Direction.INCOMING) < MIN_LIKES) {
+            return true;
+        }
+        BloomFilter filter;
+        synchronized (this) {
+            filter = filters.get(userNode.getId());
+        }
+        if (filter == null) {
+            filter = build(userNode);
+        }
+        return filter.mightContain(tvShowNode.getId());
+    }
+
+    /**
+     * Adds like to user's filter, if user has one.
+     */
+    private void add(final long userId, final long tvShowId) {
+        BloomFilter filter;
+        synchronized (this) {
+            filter = filters.get(userId);
+        }
+        if (filter != null && !filter.add(tvShowId)) {
+            //filter is over capacity, it is built again when it is needed
+            remove(userId);
+        }
+    }
+
+    private synchronized void remove(final long userId) {
+        filters.remove(userId);
+    }
+
+    private BloomFilter build(final Node userNode) {
+        int likes = userNode.getDegree(RelationType.LIKES, Direction.OUTGOING);
+        BloomFilter filter = new BloomFilter(likes * 2);
+        for (Relationship like : userNode.getRelationships(RelationType.LIKES, Direction.OUTGOING)) {
+            filter.add(like.getEndNode().getId());
+        }
+        synchronized (this) {
+            filters.put(userNode.getId(), filter);
+        }
+        return filter;
+    }
+
+    /**
+     * Adds likes created in any way (not only by the domain service) and drops filters of deleted users.
+     */
+    @Override
+    public Void beforeCommit(final TransactionData data) {
+        for (Relationship like : data.createdRelationships()) {
+            if (like.isType(RelationType.LIKES)) {
+                add(like.getStartNode().getId(), like.getEndNode().getId());
+            }
+        }
+        for (Node node : data.deletedNodes()) {
+            remove(node.getId());
+        }
+        return null;
+    }
+
+    @Override
+    public void afterCommit(final TransactionData data, final Void state) {
+        //filters were updated before commit, rolled back likes only make false positives
+    }
+
+    @Override
+    public void afterRollback(final TransactionData data, final Void state) {
+        //filters were updated before commit, rolled back likes only make false positives
+    }
+
+    /**
+     * Bloom filter of node ids with about 1% false positives up to its capacity.
+     */
+    private static class BloomFilter {
+        /** Bits for each element for about 1% false positives. */
+        private static final int BITS_PER_ELEMENT = 10;
+        private static final int HASH_COUNT = 7;
+
+        private final long[] bits;
+        private final int capacity;
+        private int size;
+
+        private BloomFilter(int capacity) {
+            this.capacity = capacity;
+            this.bits = new long[Math.max(1, capacity * BITS_PER_ELEMENT / 64)];
+        }
+
+        /**
+         * Adds node id. Returns false if filter is over its capacity.
+         */
+        private synchronized boolean add(final long nodeId) {
+            long hash = mix(nodeId);
+            int first = (int) hash;
+            int second = (int) (hash >>> 32);
+            for (int i = 0; i < HASH_COUNT; i++) {
+                int bit = ((first + i * second) & Integer.MAX_VALUE) % (bits.length * 64);
+                bits[bit >>> 6] |= 1L << bit;
+            }
+            return ++size <= capacity;
+        }
+
+        private synchronized boolean mightContain(final long nodeId) {
+            long hash = mix(nodeId);
+            int first = (int) hash;
+            int second = (int) (hash >>> 32);
+            for (int i = 0; i < HASH_COUNT; i++) {
+                int bit = ((first + i * second) & Integer.MAX_VALUE) % (bits.length * 64);
+                if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Spreads node id bits, node ids are mostly sequential.
+         */
+        private static long mix(long value) {
+            value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+            value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return value ^ (value >>> 33);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.neo4j.homework.unmanagedextension;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms of web service endpoints, their stages (JSON parsing and response serialization)
+ * and domain service operations, and error counts by exception type. Recording only updates atomic counters,
+ * so it does not lock and costs about as much as reading the clock. Metrics are written in Prometheus text format.
+ */
+public class Metrics {
+    /** Media type of Prometheus text format. */
+    static final String TEXT_FORMAT = "text/plain; version=0.0.4";
+    /** Quantiles written for every histogram. */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /** Endpoint histograms by labels. */
+    private final ConcurrentMap<String, Histogram> endpoints = new ConcurrentHashMap<>();
+    /** Stage histograms by labels. */
+    private final ConcurrentMap<String, Histogram> stages = new ConcurrentHashMap<>();
+    /** Domain operation histograms by labels. */
+    private final ConcurrentMap<String, Histogram> operations = new ConcurrentHashMap<>();
+    /** Error counts by labels. */
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+    /**
+     * Records time of a request to the endpoint (path template) since <code>startNanos</code>.
+     */
+    void recordEndpoint(final String endpoint, final long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        getHistogram(endpoints, "endpoint=\"" + endpoint + "\"").record(nanos);
+    }
+
+    /**
+     * Records time of a stage of a request to the endpoint since <code>startNanos</code>.
+     */
+    void recordStage(final String endpoint, final String stage, final long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        String labels = "endpoint=\"" + endpoint + "\",stage=\"" + stage + "\"";
+        getHistogram(stages, labels).record(nanos);
+    }
+
+    /**
+     * Records time of a domain service operation since <code>startNanos</code>.
+     */
+    void recordOperation(final String operation, final long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        getHistogram(operations, "operation=\"" + operation + "\"").record(nanos);
+    }
+
+    /**
+     * Counts error of a request to the endpoint by exception type.
+     */
+    void recordError(final String endpoint, final Exception e) {
+        String labels = "endpoint=\"" + endpoint + "\",exception=\"" + e.getClass().getSimpleName() + "\"";
+        AtomicLong count = errors.get(labels);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = errors.putIfAbsent(labels, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private static Histogram getHistogram(final ConcurrentMap<String, Histogram> histograms, final String labels) {
+        Histogram histogram = histograms.get(labels);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = histograms.putIfAbsent(labels, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Writes all metrics in Prometheus text format, series are ordered by labels.
+     */
+    String toText() {
+        StringBuilder text = new StringBuilder();
+        writeHistograms(text, "homework_endpoint_seconds", "Time of web service requests by endpoint.", endpoints);
+        writeHistograms(text, "homework_stage_seconds", "Time of JSON parsing and response serialization.", stages);
+        writeHistograms(text, "homework_domain_seconds", "Time of domain service operations.", operations);
+        text.append("# HELP homework_errors_total Failed requests by endpoint and exception type.\n");
+        text.append("# TYPE homework_errors_total counter\n");
+        for (Map.Entry<String, AtomicLong> error : new TreeMap<>(errors).entrySet()) {
+            text.append("homework_errors_total{").append(error.getKey()).append("} ")
+                .append(error.getValue().get()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void writeHistograms(final StringBuilder text, final String name, final String help,
+                                        final ConcurrentMap<String, Histogram> histograms) {
+        Map<String, Histogram> sorted = new TreeMap<>(histograms);
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" summary\n");
+        for (Map.Entry<String, Histogram> entry : sorted.entrySet()) {
+            String labels = entry.getKey();
+            Histogram histogram = entry.getValue();
+            long[] counts = histogram.getCounts();
+            for (double quantile : QUANTILES) {
+                text.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                    .append(toSeconds(Histogram.getQuantile(counts, quantile))).append('\n');
+            }
+            text.append(name).append("_sum{").append(labels).append("} ")
+                .append(toSeconds(histogram.sumMicros.get())).append('\n');
+            text.append(name).append("_count{").append(labels).append("} ")
+                .append(histogram.count.get()).append('\n');
+        }
+        //samples of a metric family must be together, so max is a separate gauge
+        text.append("# HELP ").append(name).append("_max Highest recorded value.\n");
+        text.append("# TYPE ").append(name).append("_max gauge\n");
+        for (Map.Entry<String, Histogram> entry : sorted.entrySet()) {
+            text.append(name).append("_max{").append(entry.getKey()).append("} ")
+                .append(toSeconds(entry.getValue().maxMicros.get())).append('\n');
+        }
+    }
+
+    private static String toSeconds(final long micros) {
+        return String.valueOf(micros / (double) TimeUnit.SECONDS.toMicros(1));
+    }
+
+    /**
+     * Log-linear histogram of microseconds, like HDR histogram: values below <code>SUB_BUCKETS</code> have their
+     * own bucket, every higher power of two range is split into <code>SUB_BUCKETS</code> buckets, so values are
+     * kept with about 6% precision up to about a day.
+     */
+    static class Histogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        /** Highest power of two of recorded microseconds, higher values are kept in the last bucket. */
+        private static final int MAX_EXPONENT = 36;
+
+        private final AtomicLongArray buckets = new AtomicLongArray((MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sumMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        void record(final long nanos) {
+            long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+            buckets.incrementAndGet(Math.min(getBucket(micros), buckets.length() - 1));
+            count.incrementAndGet();
+            sumMicros.addAndGet(micros);
+            long max = maxMicros.get();
+            while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+                max = maxMicros.get();
+            }
+        }
+
+        private static int getBucket(final long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * Gets the highest value kept in the bucket.
+         */
+        private static long getHighestValue(final int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            int subBucket = bucket % SUB_BUCKETS;
+            long lowest = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+            return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+
+        private long[] getCounts() {
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return counts;
+        }
+
+        /**
+         * Gets microseconds below which the quantile of values is, from counts read at once.
+         */
+        private static long getQuantile(final long[] counts, final double quantile) {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return getHighestValue(i);
+                }
+            }
+            return getHighestValue(counts.length - 1);
+        }
+    }
+}
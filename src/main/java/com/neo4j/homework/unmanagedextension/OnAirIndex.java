@@ -0,0 +1,377 @@
+package com.neo4j.homework.unmanagedextension;
+
+import com.neo4j.homework.unmanagedextension.domain.TvShow;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongObjectMap;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * In-memory index of TV show air intervals (release date to end date, open if TV show is still running) for
+ * finding TV shows on air on a date. Intervals are kept in arrays sorted by release date with a tree of max end
+ * dates, so a query is a binary search and a walk of subtrees that have intervals on air. Index is built on
+ * extension start and then updated from every committed transaction that changes TV show dates. Readers use
+ * immutable snapshots that are replaced after commits. Intervals changed by commits are kept next to the arrays
+ * and searched by scan until there are <code>MAX_PENDING_CHANGES</code> of them, then they are merged to new
+ * arrays, so commits do not copy all intervals each time.
+ */
+public class OnAirIndex implements TransactionEventHandler<OnAirIndex.Changes> {
+    /** End of intervals of TV shows that are still running. */
+    private static final long RUNNING = Long.MAX_VALUE;
+    /** Change of TV show that is removed from the index, primitive maps do not keep null values. */
+    private static final long[] REMOVED = new long[0];
+    /** Count of changed TV shows that are merged to new arrays, a query scans up to this many intervals. */
+    private static final int MAX_PENDING_CHANGES = 1024;
+
+    /**
+     * Object for accessing graph database and execute commands.
+     */
+    private final GraphDatabaseService database;
+    /** Current intervals, replaced as a whole. */
+    private volatile Snapshot snapshot = new Snapshot(new long[0], new long[0], new long[0], 0);
+
+    public OnAirIndex(final GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    /**
+     * Builds index from all TV shows in one pass.
+     */
+    void build() {
+        Changes changes = new Changes();
+        try ( Transaction tx = database.beginTx();
+              ResourceIterator<Node> tvShowNodes = database.findNodes(TvShow.TV_SHOW_LABEL) ) {
+            while (tvShowNodes.hasNext()) {
+                addInterval(changes, tvShowNodes.next());
+            }
+            tx.success();
+        }
+        synchronized (this) {
+            snapshot = new Snapshot(new long[0], new long[0], new long[0], 0).rebuild(changes.intervals);
+        }
+    }
+
+    /**
+     * Finds node ids of TV shows released on or before the day and ended on or after it or still running,
+     * ordered by release date. Days are counted since 1970-01-01.
+     */
+    long[] findOnAir(final long day) {
+        return snapshot.findOnAir(day);
+    }
+
+    /**
+     * Collects new intervals of created TV shows and TV shows with changed dates, and node ids of deleted
+     * TV shows, while transaction state can still be read.
+     */
+    @Override
+    public Changes beforeCommit(final TransactionData data) {
+        Changes changes = null;
+        for (Node node : data.createdNodes()) {
+            if (!data.isDeleted(node) && node.hasLabel(TvShow.TV_SHOW_LABEL)) {
+                changes = addInterval(changes, node);
+            }
+        }
+        for (LabelEntry labelEntry : data.assignedLabels()) {
+            if (labelEntry.label().equals(TvShow.TV_SHOW_LABEL) && !data.isDeleted(labelEntry.node())) {
+                changes = addInterval(changes, labelEntry.node());
+            }
+        }
+        for (LabelEntry labelEntry : data.removedLabels()) {
+            if (labelEntry.label().equals(TvShow.TV_SHOW_LABEL)) {
+                changes = removeInterval(changes, labelEntry.node().getId());
+            }
+        }
+        for (PropertyEntry<Node> property : data.assignedNodeProperties()) {
+            changes = addChangedDate(changes, data, property);
+        }
+        for (PropertyEntry<Node> property : data.removedNodeProperties()) {
+            changes = addChangedDate(changes, data, property);
+        }
+        for (Node node : data.deletedNodes()) {
+            changes = removeInterval(changes, node.getId());
+        }
+        return changes;
+    }
+
+    private static Changes addChangedDate(Changes changes, final TransactionData data,
+                                          final PropertyEntry<Node> property) {
+        Node node = property.entity();
+        if ((property.key().equals(TvShow.RELEASE_DATE) || property.key().equals(TvShow.END_DATE))
+                && !data.isDeleted(node) && node.hasLabel(TvShow.TV_SHOW_LABEL)) {
+            changes = addInterval(changes, node);
+        }
+        return changes;
+    }
+
+    private static Changes addInterval(Changes changes, final Node tvShowNode) {
+        if (changes == null) {
+            changes = new Changes();
+        }
+        TvShow tvShow = new TvShow(tvShowNode);
+        Long releaseDate = tvShow.getReleaseDateValue();
+        Object endDate = tvShowNode.getProperty(TvShow.END_DATE, null);
+        Long endDateValue = endDate == null ? Long.valueOf(RUNNING) : TvShow.toEpochDayValue(endDate);
+        if (releaseDate == null || endDateValue == null) {
+            //dates cannot be read, TV show cannot be found by date
+            changes.intervals.put(tvShowNode.getId(), REMOVED);
+        } else {
+            changes.intervals.put(tvShowNode.getId(), new long[]{releaseDate, endDateValue});
+        }
+        return changes;
+    }
+
+    private static Changes removeInterval(Changes changes, final long nodeId) {
+        if (changes == null) {
+            changes = new Changes();
+        }
+        changes.intervals.put(nodeId, REMOVED);
+        return changes;
+    }
+
+    @Override
+    public void afterCommit(final TransactionData data, final Changes changes) {
+        if (changes == null) {
+            return;
+        }
+        synchronized (this) {
+            snapshot = snapshot.apply(changes);
+        }
+    }
+
+    @Override
+    public void afterRollback(final TransactionData data, final Changes changes) {
+        //nothing was applied before commit
+    }
+
+    /**
+     * Immutable intervals sorted by release date, with a tree of max end dates over them, and intervals changed
+     * after the arrays were built.
+     */
+    private static class Snapshot {
+        /** Orders intervals stored as arrays with release date first. */
+        private static final Comparator<long[]> BY_RELEASE_DATE = new Comparator<long[]>() {
+            @Override
+            public int compare(long[] first, long[] second) {
+                return Long.compare(first[0], second[0]);
+            }
+        };
+
+        private final long[] releaseDates;
+        private final long[] endDates;
+        private final long[] nodeIds;
+        private final int size;
+        /** Max end dates of intervals, node i covers nodes 2i and 2i + 1, leaves start at <code>leafOffset</code>. */
+        private final long[] maxEndDates;
+        private final int leafOffset;
+        /** New intervals of TV shows changed after the arrays were built, they replace intervals in the arrays. */
+        private final PrimitiveLongObjectMap<long[]> pending;
+
+        private Snapshot(long[] releaseDates, long[] endDates, long[] nodeIds, int size) {
+            this.releaseDates = releaseDates;
+            this.endDates = endDates;
+            this.nodeIds = nodeIds;
+            this.size = size;
+            this.pending = Primitive.longObjectMap();
+            int leaves = 1;
+            while (leaves < size) {
+                leaves *= 2;
+            }
+            this.leafOffset = leaves;
+            this.maxEndDates = new long[leaves * 2];
+            Arrays.fill(maxEndDates, Long.MIN_VALUE);
+            System.arraycopy(endDates, 0, maxEndDates, leaves, size);
+            for (int i = leaves - 1; i > 0; i--) {
+                maxEndDates[i] = Math.max(maxEndDates[2 * i], maxEndDates[2 * i + 1]);
+            }
+        }
+
+        /**
+         * Creates snapshot that shares arrays of the base snapshot and has other pending intervals.
+         */
+        private Snapshot(final Snapshot base, final PrimitiveLongObjectMap<long[]> pending) {
+            this.releaseDates = base.releaseDates;
+            this.endDates = base.endDates;
+            this.nodeIds = base.nodeIds;
+            this.size = base.size;
+            this.maxEndDates = base.maxEndDates;
+            this.leafOffset = base.leafOffset;
+            this.pending = pending;
+        }
+
+        /**
+         * Merges intervals found in the arrays with pending intervals on air, both in release date order.
+         */
+        private long[] findOnAir(final long day) {
+            int[] positions = findPositionsOnAir(day);
+            long[][] pendingOnAir = new long[pending.size()][];
+            int pendingSize = 0;
+            for (long nodeId : toArray(pending)) {
+                long[] interval = pending.get(nodeId);
+                if (interval != REMOVED && interval[0] <= day && interval[1] >= day) {
+                    pendingOnAir[pendingSize++] = new long[]{interval[0], nodeId};
+                }
+            }
+            Arrays.sort(pendingOnAir, 0, pendingSize, BY_RELEASE_DATE);
+
+            long[] found = new long[positions.length + pendingSize];
+            int foundSize = 0;
+            int next = 0;
+            for (int position : positions) {
+                if (pending.containsKey(nodeIds[position])) {
+                    continue;
+                }
+                while (next < pendingSize && pendingOnAir[next][0] < releaseDates[position]) {
+                    found[foundSize++] = pendingOnAir[next++][1];
+                }
+                found[foundSize++] = nodeIds[position];
+            }
+            while (next < pendingSize) {
+                found[foundSize++] = pendingOnAir[next++][1];
+            }
+            return Arrays.copyOf(found, foundSize);
+        }
+
+        /**
+         * Finds positions of intervals on air in the arrays in release date order, pending intervals are not
+         * checked.
+         */
+        private int[] findPositionsOnAir(final long day) {
+            //intervals released on or before the day are a prefix
+            int released = upperBound(day);
+            int[] found = new int[16];
+            int foundSize = 0;
+            if (released > 0) {
+                int[] stack = new int[64];
+                int top = 0;
+                stack[top++] = 1;
+                while (top > 0) {
+                    int treeNode = stack[--top];
+                    if (maxEndDates[treeNode] < day) {
+                        continue;
+                    }
+                    if (treeNode >= leafOffset) {
+                        if (treeNode - leafOffset >= released) {
+                            continue;
+                        }
+                        if (foundSize == found.length) {
+                            found = Arrays.copyOf(found, foundSize * 2);
+                        }
+                        found[foundSize++] = treeNode - leafOffset;
+                        continue;
+                    }
+                    //right child is pushed first, so intervals are found in release date order
+                    int right = 2 * treeNode + 1;
+                    if (firstLeaf(right) < released) {
+                        stack[top++] = right;
+                    }
+                    stack[top++] = 2 * treeNode;
+                }
+            }
+            return Arrays.copyOf(found, foundSize);
+        }
+
+        /**
+         * Gets index of the first interval under the tree node.
+         */
+        private int firstLeaf(final int treeNode) {
+            int levelsBelow = Integer.numberOfLeadingZeros(treeNode) - Integer.numberOfLeadingZeros(leafOffset);
+            return (treeNode << levelsBelow) - leafOffset;
+        }
+
+        /**
+         * Gets count of intervals released on or before the day.
+         */
+        private int upperBound(final long day) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (releaseDates[middle] <= day) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Creates snapshot with changes added to pending intervals, or merged to new arrays with pending
+         * intervals when there are too many of them.
+         */
+        private Snapshot apply(final Changes changes) {
+            PrimitiveLongObjectMap<long[]> merged =
+                    Primitive.longObjectMap(pending.size() + changes.intervals.size());
+            for (long nodeId : toArray(pending)) {
+                merged.put(nodeId, pending.get(nodeId));
+            }
+            for (long nodeId : toArray(changes.intervals)) {
+                merged.put(nodeId, changes.intervals.get(nodeId));
+            }
+            return merged.size() <= MAX_PENDING_CHANGES ? new Snapshot(this, merged) : rebuild(merged);
+        }
+
+        /**
+         * Creates snapshot without changed TV shows and with their new intervals in the arrays.
+         */
+        private Snapshot rebuild(final PrimitiveLongObjectMap<long[]> changed) {
+            int added = 0;
+            long[][] addedIntervals = new long[changed.size()][];
+            for (long nodeId : toArray(changed)) {
+                long[] interval = changed.get(nodeId);
+                if (interval != REMOVED) {
+                    addedIntervals[added++] = new long[]{interval[0], interval[1], nodeId};
+                }
+            }
+            Arrays.sort(addedIntervals, 0, added, BY_RELEASE_DATE);
+
+            int capacity = size + added;
+            long[] newReleaseDates = new long[capacity];
+            long[] newEndDates = new long[capacity];
+            long[] newNodeIds = new long[capacity];
+            int newSize = 0;
+            int next = 0;
+            for (int i = 0; i <= size; i++) {
+                while (next < added && (i == size || addedIntervals[next][0] < releaseDates[i])) {
+                    newReleaseDates[newSize] = addedIntervals[next][0];
+                    newEndDates[newSize] = addedIntervals[next][1];
+                    newNodeIds[newSize++] = addedIntervals[next++][2];
+                }
+                if (i < size && !changed.containsKey(nodeIds[i])) {
+                    newReleaseDates[newSize] = releaseDates[i];
+                    newEndDates[newSize] = endDates[i];
+                    newNodeIds[newSize++] = nodeIds[i];
+                }
+            }
+            return new Snapshot(newReleaseDates, newEndDates, newNodeIds, newSize);
+        }
+
+        private static long[] toArray(final PrimitiveLongObjectMap<long[]> map) {
+            long[] keys = new long[map.size()];
+            int i = 0;
+            PrimitiveLongIterator iterator = map.iterator();
+            while (iterator.hasNext()) {
+                keys[i++] = iterator.next();
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * New intervals of TV shows changed by a transaction by node id, <code>REMOVED</code> for TV shows removed
+     * from the index.
+     */
+    static class Changes {
+        private final PrimitiveLongObjectMap<long[]> intervals = Primitive.longObjectMap();
+    }
+}
@@ -0,0 +1,83 @@
+package com.neo4j.homework.unmanagedextension;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Steps of native recommendation run with rows they produced, estimated store reads and time, like Cypher
+ * PROFILE plan. Reads are not counted by the store, every step estimates them from its rows. Disabled profile
+ * records nothing, so the same code runs with and without profiling.
+ */
+public class Profile {
+    /** Profile that records nothing. */
+    static final Profile NONE = new Profile(false);
+
+    private final boolean enabled;
+    private final List<Step> steps;
+
+    private Profile(final boolean enabled) {
+        this.enabled = enabled;
+        this.steps = enabled ? new ArrayList<Step>() : Collections.<Step>emptyList();
+    }
+
+    /**
+     * Creates profile that records steps.
+     */
+    static Profile create() {
+        return new Profile(true);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records step that started at <code>startNanos</code>. Returns current time, start of the next step.
+     */
+    long record(final String operator, final long rows, final long estimatedReads, final long startNanos) {
+        long now = System.nanoTime();
+        if (enabled) {
+            steps.add(new Step(operator, rows, estimatedReads, now - startNanos));
+        }
+        return now;
+    }
+
+    List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Recorded step.
+     */
+    static class Step {
+        private final String operator;
+        private final long rows;
+        /** Store records the step reads, estimated from its rows. */
+        private final long estimatedReads;
+        private final long nanos;
+
+        private Step(String operator, long rows, long estimatedReads, long nanos) {
+            this.operator = operator;
+            this.rows = rows;
+            this.estimatedReads = estimatedReads;
+            this.nanos = nanos;
+        }
+
+        String getOperator() {
+            return operator;
+        }
+
+        long getRows() {
+            return rows;
+        }
+
+        long getEstimatedReads() {
+            return estimatedReads;
+        }
+
+        long getNanos() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.neo4j.homework.unmanagedextension;
+
+import com.neo4j.homework.unmanagedextension.domain.TvShow;
+import com.neo4j.homework.unmanagedextension.domain.User;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Online migration of user ages and TV show dates stored as strings to int ages and epoch day dates, release
+ * date index adds migrated TV shows when they commit. Runs in background after extension start and converts nodes in
+ * small transactions, so requests are served meanwhile. Code reading these properties accepts both forms.
+ */
+public class PropertyMigration implements Runnable {
+    /** Count of nodes migrated in one transaction. */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Object for accessing graph database and execute commands.
+     */
+    private final GraphDatabaseService database;
+    private final RangeIndexes rangeIndexes;
+    private volatile boolean stopped;
+    private volatile String state = "NOT_STARTED";
+
+    private final AtomicLong migratedUsers = new AtomicLong();
+    private final AtomicLong migratedTvShows = new AtomicLong();
+    private final AtomicLong failedNodes = new AtomicLong();
+
+    public PropertyMigration(final GraphDatabaseService database, final RangeIndexes rangeIndexes) {
+        this.database = database;
+        this.rangeIndexes = rangeIndexes;
+    }
+
+    @Override
+    public void run() {
+        state = "RUNNING";
+        try {
+            migrate(User.USER_LABEL);
+            migrate(TvShow.TV_SHOW_LABEL);
+            if (!stopped) {
+                rangeIndexes.setPopulated();
+                state = "COMPLETE";
+            } else {
+                state = "STOPPED";
+            }
+        } catch (RuntimeException e) {
+            //range reads keep falling back to label scans, migration runs again on next start
+            state = "FAILED: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Stops migration after the current batch.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Gets migration state: NOT_STARTED, RUNNING, COMPLETE, STOPPED or FAILED with reason.
+     */
+    String getState() {
+        return state;
+    }
+
+    /**
+     * Gets counts of migrated nodes and nodes that could not be migrated.
+     */
+    Map<String, Long> getCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("migratedUsers", migratedUsers.get());
+        counts.put("migratedTvShows", migratedTvShows.get());
+        counts.put("failedNodes", failedNodes.get());
+        return counts;
+    }
+
+    private void migrate(final Label label) {
+        long[] nodeIds = findNodesToMigrate(label);
+        for (int from = 0; from < nodeIds.length && !stopped; from += BATCH_SIZE) {
+            try ( Transaction tx = database.beginTx() ) {
+                for (int i = from; i < Math.min(from + BATCH_SIZE, nodeIds.length); i++) {
+                    Node node = database.getNodeById(nodeIds[i]);
+                    boolean migrated = label.equals(User.USER_LABEL) ? migrateUser(node) : migrateTvShow(node);
+                    if (!migrated) {
+                        failedNodes.incrementAndGet();
+                    }
+                }
+                tx.success();
+            }
+        }
+    }
+
+    /**
+     * Finds ids of nodes with string properties, nodes are migrated in later transactions.
+     */
+    private long[] findNodesToMigrate(final Label label) {
+        String property = label.equals(User.USER_LABEL) ? User.AGE : TvShow.RELEASE_DATE;
+        long[] nodeIds = new long[16];
+        int size = 0;
+        try ( Transaction tx = database.beginTx();
+              ResourceIterator<Node> nodes = database.findNodes(label) ) {
+            while (nodes.hasNext() && !stopped) {
+                Node node = nodes.next();
+                if (node.getProperty(property, null) instanceof String) {
+                    if (size == nodeIds.length) {
+                        nodeIds = Arrays.copyOf(nodeIds, size * 2);
+                    }
+                    nodeIds[size++] = node.getId();
+                }
+            }
+            tx.success();
+        }
+        return Arrays.copyOf(nodeIds, size);
+    }
+
+    private boolean migrateUser(final Node userNode) {
+        Object age = userNode.getProperty(User.AGE, null);
+        if (!(age instanceof String)) {
+            return true;
+        }
+        Integer ageValue = User.toAgeValue(age);
+        if (ageValue == null) {
+            return false;
+        }
+        userNode.setProperty(User.AGE, ageValue);
+        migratedUsers.incrementAndGet();
+        return true;
+    }
+
+    private boolean migrateTvShow(final Node tvShowNode) {
+        Object releaseDate = tvShowNode.getProperty(TvShow.RELEASE_DATE, null);
+        if (!(releaseDate instanceof String)) {
+            return true;
+        }
+        Long releaseDateValue = TvShow.toEpochDayValue(releaseDate);
+        Object endDate = tvShowNode.getProperty(TvShow.END_DATE, null);
+        Long endDateValue = endDate == null ? null : TvShow.toEpochDayValue(endDate);
+        if (releaseDateValue == null || (endDate != null && endDateValue == null)) {
+            return false;
+        }
+        tvShowNode.setProperty(TvShow.RELEASE_DATE, releaseDateValue);
+        if (endDateValue != null) {
+            tvShowNode.setProperty(TvShow.END_DATE, endDateValue);
+        }
+        migratedTvShows.incrementAndGet();
+        return true;
+    }
+}
@@ -0,0 +1,109 @@
+package com.neo4j.homework.unmanagedextension;
+
+import com.neo4j.homework.unmanagedextension.domain.TvShow;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.index.lucene.QueryContext;
+import org.neo4j.index.lucene.ValueContext;
+
+/**
+ * Numeric Lucene (legacy) index of TV show release dates. Schema indexes of this Neo4j version only support exact
+ * lookups, so this one is used for range reads. TV shows are added before commit of every transaction that sets
+ * a numeric release date, so TV shows created by Cypher are indexed too. Index is populated when property
+ * migration is complete, before that range reads must fall back to label scans.
+ */
+public class RangeIndexes implements TransactionEventHandler<Void> {
+    /** Index of user ages of older versions, nothing reads ages by range. */
+    private static final String USER_AGES = "userAges";
+    /** Index of TV show release dates as days since 1970-01-01. */
+    public static final String TV_SHOW_RELEASE_DATES = "tvShowReleaseDates";
+
+    /**
+     * Object for accessing graph database and execute commands.
+     */
+    private final GraphDatabaseService database;
+    /** Set when all nodes have typed properties and are in indexes. */
+    private volatile boolean populated;
+
+    public RangeIndexes(final GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    /**
+     * Creates index if it is missing and deletes user age index of older versions.
+     */
+    void initialize() {
+        try ( Transaction tx = database.beginTx() ) {
+            if (database.index().existsForNodes(USER_AGES)) {
+                database.index().forNodes(USER_AGES).delete();
+            }
+            database.index().forNodes(TV_SHOW_RELEASE_DATES);
+            tx.success();
+        }
+    }
+
+    boolean isPopulated() {
+        return populated;
+    }
+
+    void setPopulated() {
+        populated = true;
+    }
+
+    /**
+     * Adds TV shows with changed numeric release date in the committing transaction, previous numeric values
+     * are removed. String values are left to property migration.
+     */
+    @Override
+    public Void beforeCommit(final TransactionData data) {
+        for (PropertyEntry<Node> property : data.assignedNodeProperties()) {
+            Node node = property.entity();
+            if (property.value() instanceof Number && property.key().equals(TvShow.RELEASE_DATE)
+                    && !data.isDeleted(node) && node.hasLabel(TvShow.TV_SHOW_LABEL)) {
+                Index<Node> index = getIndex(TV_SHOW_RELEASE_DATES);
+                if (property.previouslyCommitedValue() instanceof Number) {
+                    index.remove(node, property.key(), toIndexValue(property.previouslyCommitedValue()));
+                }
+                index.add(node, property.key(), toIndexValue(property.value()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Converts value to long, Cypher and the domain service store dates as longs, but index must not mix types.
+     */
+    private static ValueContext toIndexValue(final Object value) {
+        return ValueContext.numeric(((Number) value).longValue());
+    }
+
+    @Override
+    public void afterCommit(final TransactionData data, final Void state) {
+        //index changes are committed with the transaction
+    }
+
+    @Override
+    public void afterRollback(final TransactionData data, final Void state) {
+        //index changes are rolled back with the transaction
+    }
+
+    /**
+     * Finds TV shows released between given days (inclusive), null day leaves the range open.
+     * Hits must be closed. Must be called in a transaction.
+     */
+    IndexHits<Node> findTvShowsByReleaseDate(final Long fromDate, final Long toDate) {
+        long from = fromDate == null ? Long.MIN_VALUE : fromDate;
+        long to = toDate == null ? Long.MAX_VALUE : toDate;
+        return getIndex(TV_SHOW_RELEASE_DATES).query(QueryContext.numericRange(TvShow.RELEASE_DATE, from, to));
+    }
+
+    private Index<Node> getIndex(final String name) {
+        return database.index().forNodes(name);
+    }
+}
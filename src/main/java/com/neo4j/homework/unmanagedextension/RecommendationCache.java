@@ -0,0 +1,285 @@
+package com.neo4j.homework.unmanagedextension;
+
+import com.neo4j.homework.unmanagedextension.domain.RelationType;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongObjectMap;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of recommendations by user node id, entries expire after configured time. Entries are
+ * invalidated after commit of every transaction that creates or deletes likes which change user's recommendations:
+ * likes of the user, likes of the user's TV shows and, for the most liked TV shows recommendations, any like.
+ * Users that like TV shows whose co-like rows changed are invalidated by the co-like index after it applies
+ * the changes, so the user's other likes are not read again here.
+ */
+public class RecommendationCache implements TransactionEventHandler<RecommendationCache.Invalidation> {
+    /** Max count of cached users. */
+    private final int maxSize;
+    /** Time after which cached recommendations expire. */
+    private final long ttlMillis;
+
+    /** Cached recommendations by user node id, in access order. Guarded by this. */
+    private final LinkedHashMap<Long, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Cached user node ids by liked TV show node id. Guarded by this. */
+    private final PrimitiveLongObjectMap<PrimitiveLongSet> usersByTvShow = Primitive.longObjectMap();
+    /** Cached user node ids with the most liked TV shows recommendations. Guarded by this. */
+    private final PrimitiveLongSet usersByPopularity = Primitive.longSet();
+    /** Incremented on every invalidation, recommendations computed before it are not cached. Guarded by this. */
+    private long version;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public RecommendationCache(final int maxSize, final long ttlSeconds) {
+        this.maxSize = maxSize;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+    }
+
+    /**
+     * Gets version that must be passed to <code>put</code> of recommendations computed after this call.
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets cached recommendations for user. Returns null if there are none or they have expired.
+     */
+    synchronized Recommendations get(final long userId) {
+        CacheEntry entry = entries.get(userId);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.createdMillis > ttlMillis) {
+            remove(userId);
+            expirations.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.recommendations;
+    }
+
+    /**
+     * Caches user's recommendations, unless some likes were changed since <code>getVersion</code> was called.
+     */
+    synchronized void put(final long userId, final Recommendations recommendations,
+                          final PrimitiveLongSet likedTvShowIds, final long computedVersion) {
+        if (maxSize <= 0 || computedVersion != version) {
+            return;
+        }
+        remove(userId);
+
+        long[] tvShowIds = new long[likedTvShowIds.size()];
+        PrimitiveLongIterator iterator = likedTvShowIds.iterator();
+        for (int i = 0; iterator.hasNext(); i++) {
+            tvShowIds[i] = iterator.next();
+            PrimitiveLongSet users = usersByTvShow.get(tvShowIds[i]);
+            if (users == null) {
+                users = Primitive.longSet();
+                usersByTvShow.put(tvShowIds[i], users);
+            }
+            users.add(userId);
+        }
+        if (recommendations.isByPopularity()) {
+            usersByPopularity.add(userId);
+        }
+        entries.put(userId, new CacheEntry(recommendations, tvShowIds, System.currentTimeMillis()));
+
+        Iterator<Map.Entry<Long, CacheEntry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxSize && eldest.hasNext()) {
+            Map.Entry<Long, CacheEntry> eldestEntry = eldest.next();
+            eldest.remove();
+            unregister(eldestEntry.getKey(), eldestEntry.getValue());
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes user from the cache. Returns false if user was not cached.
+     */
+    private boolean remove(final long userId) {
+        CacheEntry entry = entries.remove(userId);
+        if (entry == null) {
+            return false;
+        }
+        unregister(userId, entry);
+        return true;
+    }
+
+    /**
+     * Removes user from TV show and popularity lookups.
+     */
+    private void unregister(final long userId, final CacheEntry entry) {
+        usersByPopularity.remove(userId);
+        for (long tvShowId : entry.tvShowIds) {
+            PrimitiveLongSet users = usersByTvShow.get(tvShowId);
+            if (users != null) {
+                users.remove(userId);
+                if (users.isEmpty()) {
+                    usersByTvShow.remove(tvShowId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets cache statistics.
+     */
+    synchronized Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("size", (long) entries.size());
+        statistics.put("maxSize", (long) maxSize);
+        statistics.put("ttlSeconds", TimeUnit.MILLISECONDS.toSeconds(ttlMillis));
+        statistics.put("hits", hits.get());
+        statistics.put("misses", misses.get());
+        statistics.put("evictions", evictions.get());
+        statistics.put("expirations", expirations.get());
+        statistics.put("invalidations", invalidations.get());
+        return statistics;
+    }
+
+    /**
+     * Collects users with changed likes and liked TV shows of the changed likes, while transaction state can
+     * still be read.
+     */
+    @Override
+    public Invalidation beforeCommit(final TransactionData data) {
+        Invalidation invalidation = null;
+        for (Relationship like : data.createdRelationships()) {
+            if (like.isType(RelationType.LIKES)) {
+                invalidation = addLikeChange(invalidation, like);
+            }
+        }
+        for (Relationship like : data.deletedRelationships()) {
+            if (like.isType(RelationType.LIKES)) {
+                invalidation = addLikeChange(invalidation, like);
+            }
+        }
+        return invalidation;
+    }
+
+    private static Invalidation addLikeChange(Invalidation invalidation, final Relationship like) {
+        if (invalidation == null) {
+            invalidation = new Invalidation();
+        }
+        invalidation.tvShowIds.add(like.getEndNode().getId());
+        invalidation.userIds.add(like.getStartNode().getId());
+        return invalidation;
+    }
+
+    @Override
+    public void afterCommit(final TransactionData data, final Invalidation invalidation) {
+        if (invalidation == null) {
+            return;
+        }
+        synchronized (this) {
+            version++;
+            long removed = 0;
+            removed += removeAll(invalidation.userIds);
+            removed += removeLikers(invalidation.tvShowIds);
+            removed += removeAll(usersByPopularity);
+            invalidations.addAndGet(removed);
+        }
+    }
+
+    /**
+     * Removes users that like any of the TV shows, called by co-like index with TV shows whose co-like rows
+     * it has changed.
+     */
+    synchronized void invalidateLikers(final PrimitiveLongSet tvShowIds) {
+        version++;
+        invalidations.addAndGet(removeLikers(tvShowIds));
+    }
+
+    /**
+     * Removes all users, called by co-like index when it becomes ready or is dropped.
+     */
+    synchronized void invalidateAll() {
+        version++;
+        long[] userIds = new long[entries.size()];
+        int i = 0;
+        for (Long userId : entries.keySet()) {
+            userIds[i++] = userId;
+        }
+        for (long userId : userIds) {
+            remove(userId);
+        }
+        invalidations.addAndGet(userIds.length);
+    }
+
+    /**
+     * Removes users that like any of the TV shows from the cache. Returns count of removed users.
+     */
+    private long removeLikers(final PrimitiveLongSet tvShowIds) {
+        long removed = 0;
+        PrimitiveLongIterator iterator = tvShowIds.iterator();
+        while (iterator.hasNext()) {
+            PrimitiveLongSet users = usersByTvShow.get(iterator.next());
+            if (users != null) {
+                removed += removeAll(users);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all given users from the cache. Returns count of removed users.
+     */
+    private long removeAll(final PrimitiveLongSet users) {
+        long[] userIds = new long[users.size()];
+        PrimitiveLongIterator iterator = users.iterator();
+        for (int i = 0; iterator.hasNext(); i++) {
+            userIds[i] = iterator.next();
+        }
+        long removed = 0;
+        for (long userId : userIds) {
+            if (remove(userId)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void afterRollback(final TransactionData data, final Invalidation invalidation) {
+        //nothing has changed
+    }
+
+    /**
+     * Cached recommendations with TV shows liked by user when they were computed.
+     */
+    private static class CacheEntry {
+        private final Recommendations recommendations;
+        private final long[] tvShowIds;
+        private final long createdMillis;
+
+        private CacheEntry(Recommendations recommendations, long[] tvShowIds, long createdMillis) {
+            this.recommendations = recommendations;
+            this.tvShowIds = tvShowIds;
+            this.createdMillis = createdMillis;
+        }
+    }
+
+    /**
+     * Users and TV shows whose recommendations must be invalidated after a transaction.
+     */
+    static class Invalidation {
+        private final PrimitiveLongSet userIds = Primitive.longSet();
+        private final PrimitiveLongSet tvShowIds = Primitive.longSet();
+    }
+}
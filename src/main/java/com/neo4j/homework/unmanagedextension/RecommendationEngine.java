@@ -0,0 +1,141 @@
+package com.neo4j.homework.unmanagedextension;
+
+import com.neo4j.homework.unmanagedextension.domain.TvShow;
+import org.neo4j.collection.primitive.PrimitiveLongIntMap;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * TV show recommendations computed with core API and co-like index. Counters are kept in primitive maps
+ * keyed by node id and only the best TV shows are kept in a bounded heap, so memory depends on the size of
+ * user's neighbourhood and not on the size of the graph.
+ */
+public class RecommendationEngine {
+    /** Orders TV shows from the lowest score, ties are broken by the highest node id. */
+    private static final Comparator<ScoredTvShow> LOWEST_SCORE_FIRST = new Comparator<ScoredTvShow>() {
+        @Override
+        public int compare(ScoredTvShow first, ScoredTvShow second) {
+            if (first.score != second.score) {
+                return first.score < second.score ? -1 : 1;
+            }
+            return Long.compare(second.nodeId, first.nodeId);
+        }
+    };
+    /** Orders TV shows from the highest score, ties are broken by the lowest node id. */
+    static final Comparator<ScoredTvShow> HIGHEST_SCORE_FIRST = Collections.reverseOrder(LOWEST_SCORE_FIRST);
+
+    /**
+     * Object for accessing graph database and execute commands.
+     */
+    private final GraphDatabaseService database;
+    /** TV show to TV show co-like counts. */
+    private final CoLikeIndex coLikeIndex;
+    /** Most liked TV shows. */
+    private final TopTvShows topTvShows;
+
+    public RecommendationEngine(final GraphDatabaseService database, final CoLikeIndex coLikeIndex,
+                                final TopTvShows topTvShows) {
+        this.database = database;
+        this.coLikeIndex = coLikeIndex;
+        this.topTvShows = topTvShows;
+    }
+
+    /**
+     * Recommends TV shows not liked by user, liked by users that like user's TV shows (co-likers). TV show's score
+     * is count of co-likers' likes of user's TV shows that lead to it, it is the sum of user's TV shows' rows in
+     * co-like index. Takes ids of TV shows liked by user. Returns TV show titles with scores ordered from the best.
+     * Must be called in a transaction.
+     */
+    Recommendations recommendByCoLikes(final PrimitiveLongSet likedTvShowIds, final int limit,
+                                       final Profile profile) {
+        long start = System.nanoTime();
+        PrimitiveLongIntMap scores = coLikeIndex.score(likedTvShowIds);
+        start = profile.record("CoLikeIndexScore", scores.size(), 0, start);
+        ScoredTvShow[] best = selectTop(scores, limit);
+        start = profile.record("SelectTop", best.length, 0, start);
+
+        Map<String, Long> recommendations = toTitles(best);
+        profile.record("ReadTitles", best.length, 2 * best.length, start);
+        scores.close();
+        return new Recommendations(recommendations, false);
+    }
+
+    /**
+     * Recommends the most liked TV shows not liked by user, for users whose TV shows have no co-likers.
+     * TV show's score is count of its likes. Takes ids of TV shows liked by user.
+     * Must be called in a transaction.
+     */
+    Recommendations recommendByPopularity(final PrimitiveLongSet likedTvShowIds, final int limit,
+                                          final Profile profile) {
+        long start = System.nanoTime();
+        ScoredTvShow[] top = topTvShows.getTop(limit, likedTvShowIds);
+        start = profile.record("TopTvShows", top.length, 0, start);
+        Map<String, Long> recommendations = toTitles(top);
+        profile.record("ReadTitles", top.length, 2 * top.length, start);
+        return new Recommendations(recommendations, true);
+    }
+
+    /**
+     * Selects TV shows with the highest scores using heap bounded by the limit. Returns them from the best.
+     */
+    static ScoredTvShow[] selectTop(final PrimitiveLongIntMap scores, final int limit) {
+        PriorityQueue<ScoredTvShow> top = new PriorityQueue<>(limit + 1, LOWEST_SCORE_FIRST);
+        PrimitiveLongIterator tvShowIds = scores.iterator();
+        while (tvShowIds.hasNext()) {
+            long tvShowId = tvShowIds.next();
+            int score = scores.get(tvShowId);
+            ScoredTvShow lowest = top.peek();
+            if (top.size() < limit) {
+                top.add(new ScoredTvShow(tvShowId, score));
+            } else if (lowest != null && (score > lowest.score || (score == lowest.score && tvShowId < lowest.nodeId))) {
+                top.poll();
+                top.add(new ScoredTvShow(tvShowId, score));
+            }
+        }
+
+        ScoredTvShow[] best = new ScoredTvShow[top.size()];
+        for (int i = best.length - 1; i >= 0; i--) {
+            best[i] = top.poll();
+        }
+        return best;
+    }
+
+    /**
+     * Reads titles of scored TV shows, about two store reads for each: node and its title. Keeps the order.
+     */
+    Map<String, Long> toTitles(final ScoredTvShow[] tvShows) {
+        Map<String, Long> recommendations = new LinkedHashMap<>();
+        for (ScoredTvShow tvShow : tvShows) {
+            recommendations.put(new TvShow(database.getNodeById(tvShow.nodeId)).getName(), tvShow.score);
+        }
+        return recommendations;
+    }
+
+    /**
+     * TV show node id with its score.
+     */
+    static class ScoredTvShow {
+        private final long nodeId;
+        private final long score;
+
+        ScoredTvShow(long nodeId, long score) {
+            this.nodeId = nodeId;
+            this.score = score;
+        }
+
+        long getNodeId() {
+            return nodeId;
+        }
+
+        long getScore() {
+            return score;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.neo4j.homework.unmanagedextension;
+
+import java.util.Map;
+
+/**
+ * TV show recommendations for a user and how they were found.
+ */
+public class Recommendations {
+    /** Recommended TV show titles with their likes, ordered from the best. */
+    private final Map<String, Long> tvShows;
+    /** True if recommendations are the most liked TV shows, false if they are by users that liked user's shows. */
+    private final boolean byPopularity;
+
+    Recommendations(final Map<String, Long> tvShows, final boolean byPopularity) {
+        this.tvShows = tvShows;
+        this.byPopularity = byPopularity;
+    }
+
+    public Map<String, Long> getTvShows() {
+        return tvShows;
+    }
+
+    public boolean isByPopularity() {
+        return byPopularity;
+    }
+}
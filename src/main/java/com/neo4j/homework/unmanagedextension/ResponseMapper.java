@@ -0,0 +1,137 @@
+package com.neo4j.homework.unmanagedextension;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.ObjectNode;
+import org.codehaus.jackson.smile.SmileFactory;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * JSON mappers and writers of web service responses. They are thread-safe once configured, so they are created
+ * once on extension start and shared by all requests. Response format is chosen from <code>Accept</code> header:
+ * pretty printed JSON as text/plain by default, compact JSON for application/json and binary Smile
+ * for application/x-jackson-smile.
+ */
+public class ResponseMapper {
+    /** Media type of binary JSON (Smile) responses. */
+    static final String APPLICATION_SMILE = "application/x-jackson-smile";
+    /** Smaller responses are not worth compressing. */
+    static final int GZIP_MIN_SIZE = 1024;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectWriter prettyWriter = objectMapper.writerWithDefaultPrettyPrinter();
+    private final ObjectWriter compactWriter = objectMapper.writer();
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+
+    ObjectNode createObjectNode() {
+        return objectMapper.createObjectNode();
+    }
+
+    ArrayNode createArrayNode() {
+        return objectMapper.createArrayNode();
+    }
+
+    /**
+     * Chooses the first acceptable response format, acceptable media types are ordered by quality.
+     * Pretty printed JSON is used if nothing else is acceptable.
+     */
+    ResponseFormat getResponseFormat(final HttpHeaders headers) {
+        for (MediaType acceptable : headers.getAcceptableMediaTypes()) {
+            for (ResponseFormat format : ResponseFormat.values()) {
+                if (acceptable.isCompatible(format.getMediaType())) {
+                    return format;
+                }
+            }
+        }
+        return ResponseFormat.PRETTY_JSON;
+    }
+
+    /**
+     * Checks if client accepts gzip content encoding (not with zero quality).
+     */
+    boolean isGzipAccepted(final HttpHeaders headers) {
+        List<String> encodingHeaders = headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (encodingHeaders == null) {
+            return false;
+        }
+        for (String encodingHeader : encodingHeaders) {
+            for (String encoding : encodingHeader.split(",")) {
+                String[] parameters = encoding.split(";");
+                if (parameters[0].trim().equalsIgnoreCase("gzip")
+                        && !(parameters.length > 1 && parameters[1].replace(" ", "").matches("q=0(\\.0*)?"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes response node in the given format.
+     */
+    byte[] write(final JsonNode node, final ResponseFormat format) throws IOException {
+        switch (format) {
+            case COMPACT_JSON:
+                return compactWriter.writeValueAsBytes(node);
+            case SMILE:
+                return smileMapper.writeValueAsBytes(node);
+            default:
+                return prettyWriter.writeValueAsBytes(node);
+        }
+    }
+
+    /**
+     * Creates generator that writes response in the given format to the output stream.
+     */
+    JsonGenerator createJsonGenerator(final OutputStream outputStream, final ResponseFormat format) throws IOException {
+        if (format == ResponseFormat.SMILE) {
+            return smileMapper.getJsonFactory().createJsonGenerator(outputStream, JsonEncoding.UTF8);
+        }
+        JsonGenerator generator = objectMapper.getJsonFactory().createJsonGenerator(outputStream, JsonEncoding.UTF8);
+        if (format == ResponseFormat.PRETTY_JSON) {
+            generator.useDefaultPrettyPrinter();
+        }
+        return generator;
+    }
+
+    /**
+     * Compresses written response.
+     */
+    static byte[] gzip(final byte[] response) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(response.length / 2);
+        try ( GZIPOutputStream gzipStream = new GZIPOutputStream(compressed) ) {
+            gzipStream.write(response);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Response formats in order of preference when client accepts any of them.
+     */
+    enum ResponseFormat {
+        PRETTY_JSON(MediaType.TEXT_PLAIN_TYPE),
+        COMPACT_JSON(MediaType.APPLICATION_JSON_TYPE),
+        SMILE(new MediaType("application", "x-jackson-smile"));
+
+        private final MediaType mediaType;
+
+        ResponseFormat(final MediaType mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        MediaType getMediaType() {
+            return mediaType;
+        }
+    }
+}
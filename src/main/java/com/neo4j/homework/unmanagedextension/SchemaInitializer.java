@@ -0,0 +1,210 @@
+package com.neo4j.homework.unmanagedextension;
+
+import com.neo4j.homework.unmanagedextension.domain.TvShow;
+import com.neo4j.homework.unmanagedextension.domain.User;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates schema indexes and uniqueness constraints used by the domain service lookups and reports their state.
+ */
+public class SchemaInitializer {
+    /** How long extension start waits for indexes to come online. */
+    private static final long ONLINE_TIMEOUT_SECONDS = 60;
+    /** Schema state value for rules that are not in the database. */
+    static final String MISSING_STATE = "MISSING";
+
+    /** Schema rules expected by the extension. */
+    private static final List<SchemaRule> SCHEMA_RULES = Arrays.asList(
+            new SchemaRule(User.USER_LABEL, User.MAIL, true),
+            new SchemaRule(TvShow.TV_SHOW_LABEL, TvShow.TITLE, true),
+            new SchemaRule(TvShow.TV_SHOW_LABEL, TvShow.RELEASE_DATE, false));
+
+    /**
+     * Object for accessing graph database and execute commands.
+     */
+    private final GraphDatabaseService database;
+    /** Reasons why schema rules could not be created, by rule name. */
+    private final Map<String, String> creationFailures = new ConcurrentHashMap<>();
+
+    public SchemaInitializer(final GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    /**
+     * Creates missing indexes and uniqueness constraints and waits for them to come online.
+     */
+    void initialize() {
+        for (SchemaRule rule : SCHEMA_RULES) {
+            try {
+                createIfMissing(rule);
+                creationFailures.remove(rule.toString());
+            } catch (RuntimeException e) {
+                //most likely existing data violates uniqueness, rule is reported as missing
+                creationFailures.put(rule.toString(), String.valueOf(e.getMessage()));
+            }
+        }
+
+        try ( Transaction tx = database.beginTx() ) {
+            database.schema().awaitIndexesOnline(ONLINE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            tx.success();
+        } catch (IllegalStateException e) {
+            //index population is still running or failed, state is visible through schema status
+        }
+    }
+
+    private void createIfMissing(final SchemaRule rule) {
+        if (rule.unique) {
+            createConstraintIfMissing(rule);
+        } else {
+            createIndexIfMissing(rule);
+        }
+    }
+
+    /**
+     * Replaces plain index on the property with the uniqueness constraint. If the constraint cannot be created,
+     * plain index is created again, so lookups never scan the label.
+     */
+    private void createConstraintIfMissing(final SchemaRule rule) {
+        try ( Transaction tx = database.beginTx() ) {
+            if (findConstraint(database.schema(), rule) != null) {
+                return;
+            }
+            tx.success();
+        }
+        dropPlainIndex(rule);
+        try {
+            try ( Transaction tx = database.beginTx() ) {
+                database.schema().constraintFor(rule.label).assertPropertyIsUnique(rule.property).create();
+                tx.success();
+            }
+        } catch (RuntimeException e) {
+            createIndexIfMissing(rule);
+            throw e;
+        }
+    }
+
+    private void createIndexIfMissing(final SchemaRule rule) {
+        try ( Transaction tx = database.beginTx() ) {
+            Schema schema = database.schema();
+            if (findIndex(schema, rule) != null) {
+                return;
+            }
+            schema.indexFor(rule.label).on(rule.property).create();
+            tx.success();
+        }
+    }
+
+    /**
+     * Drops plain index on the property, it blocks creation of the uniqueness constraint.
+     */
+    private void dropPlainIndex(final SchemaRule rule) {
+        try ( Transaction tx = database.beginTx() ) {
+            IndexDefinition index = findIndex(database.schema(), rule);
+            if (index != null && !index.isConstraintIndex()) {
+                index.drop();
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * Gets state of every schema rule expected by the extension (ONLINE, POPULATING, FAILED or MISSING).
+     */
+    Map<String, String> getSchemaStatus() {
+        try ( Transaction tx = database.beginTx() ) {
+            Schema schema = database.schema();
+            Map<String, String> status = new LinkedHashMap<>();
+            for (SchemaRule rule : SCHEMA_RULES) {
+                IndexDefinition index = findIndex(schema, rule);
+                String state;
+                if (index == null || (rule.unique && findConstraint(schema, rule) == null)) {
+                    state = MISSING_STATE;
+                    String failure = creationFailures.get(rule.toString());
+                    if (failure != null) {
+                        state = state + ": " + failure;
+                    }
+                } else {
+                    Schema.IndexState indexState = schema.getIndexState(index);
+                    state = indexState.name();
+                    if (indexState == Schema.IndexState.FAILED) {
+                        state = state + ": " + schema.getIndexFailure(index);
+                    }
+                }
+                status.put(rule.toString(), state);
+            }
+            tx.success();
+            return status;
+        }
+    }
+
+    /**
+     * Checks if all expected schema rules are online.
+     */
+    boolean isSchemaOnline(final Map<String, String> status) {
+        for (String state : status.values()) {
+            if (!state.equals(Schema.IndexState.ONLINE.name())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static IndexDefinition findIndex(final Schema schema, final SchemaRule rule) {
+        for (IndexDefinition index : schema.getIndexes(rule.label)) {
+            if (rule.matches(index.getPropertyKeys())) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private static ConstraintDefinition findConstraint(final Schema schema, final SchemaRule rule) {
+        for (ConstraintDefinition constraint : schema.getConstraints(rule.label)) {
+            if (rule.matches(constraint.getPropertyKeys())) {
+                return constraint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Single property index or uniqueness constraint on a label.
+     */
+    private static class SchemaRule {
+        private final Label label;
+        private final String property;
+        private final boolean unique;
+
+        private SchemaRule(Label label, String property, boolean unique) {
+            this.label = label;
+            this.property = property;
+            this.unique = unique;
+        }
+
+        private boolean matches(final Iterable<String> propertyKeys) {
+            for (String key : propertyKeys) {
+                if (key.equals(property)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return label.name() + "(" + property + ")" + (unique ? " unique" : "");
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.neo4j.homework.unmanagedextension;
+
+import com.neo4j.homework.unmanagedextension.RecommendationEngine.ScoredTvShow;
+import com.neo4j.homework.unmanagedextension.domain.RelationType;
+import com.neo4j.homework.unmanagedextension.domain.TvShow;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIntMap;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Like counts of TV shows and in-memory list of the most liked TV shows. Every transaction that creates or deletes
+ * likes updates like count property of the liked TV shows before it commits, so counts are never read by traversal.
+ * Up to <code>CANDIDATES</code> TV shows with the highest counts are kept in an immutable snapshot that is replaced
+ * after commits, with the highest count that a TV show that is not listed may have. Listed TV shows that lose likes
+ * stay in the list, so a read needs TV shows beyond the list only when the shows it returns have fewer likes than
+ * that. Then the list is built again from stored counts without holding the lock that commits take.
+ */
+public class TopTvShows implements TransactionEventHandler<PrimitiveLongIntMap> {
+    /** Max count of most liked TV shows that are kept. */
+    static final int MAX_TOP = 100;
+    /** Count of TV shows that are kept, more than <code>MAX_TOP</code> so lost likes rarely need a new list. */
+    private static final int CANDIDATES = 2 * MAX_TOP;
+
+    /**
+     * Object for accessing graph database and execute commands.
+     */
+    private final GraphDatabaseService database;
+    /** Most liked TV shows, replaced as a whole. Not built yet, so any TV show may have more likes. */
+    private volatile Snapshot snapshot = new Snapshot(new ScoredTvShow[0], Long.MAX_VALUE);
+    /** Counts committed while the list is built, null if it is not built. Guarded by this. */
+    private PrimitiveLongIntMap committedWhileBuilding;
+
+    public TopTvShows(final GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    /**
+     * Builds list from like counts of all TV shows in one pass. Counts are read without holding the lock, counts
+     * committed meanwhile are applied to the built list again. Does nothing if the list is being built already.
+     */
+    void build() {
+        synchronized (this) {
+            if (committedWhileBuilding != null) {
+                return;
+            }
+            committedWhileBuilding = Primitive.longIntMap();
+        }
+        Snapshot built = null;
+        try {
+            PrimitiveLongIntMap likeCounts = Primitive.longIntMap();
+            try ( Transaction tx = database.beginTx();
+                  ResourceIterator<Node> tvShowNodes = database.findNodes(TvShow.TV_SHOW_LABEL) ) {
+                while (tvShowNodes.hasNext()) {
+                    Node tvShowNode = tvShowNodes.next();
+                    int likeCount = new TvShow(tvShowNode).getLikeCount();
+                    if (likeCount > 0) {
+                        likeCounts.put(tvShowNode.getId(), likeCount);
+                    }
+                }
+                tx.success();
+            }
+            ScoredTvShow[] top = RecommendationEngine.selectTop(likeCounts, CANDIDATES);
+            likeCounts.close();
+            built = new Snapshot(top, top.length == CANDIDATES ? top[top.length - 1].getScore() : 0);
+        } finally {
+            synchronized (this) {
+                if (built != null) {
+                    snapshot = built.apply(committedWhileBuilding);
+                }
+                committedWhileBuilding.close();
+                committedWhileBuilding = null;
+            }
+        }
+    }
+
+    /**
+     * Gets up to <code>limit</code> most liked TV shows that are not in the given set, from the best.
+     * Limit must not be greater than <code>MAX_TOP</code>. If the list cannot tell them, it is built again;
+     * while another request builds it, TV shows of the current list are returned.
+     */
+    ScoredTvShow[] getTop(final int limit, final PrimitiveLongSet excludedTvShowIds) {
+        ScoredTvShow[] found = snapshot.find(limit, excludedTvShowIds, true);
+        if (found == null) {
+            build();
+            found = snapshot.find(limit, excludedTvShowIds, false);
+        }
+        return found;
+    }
+
+    /**
+     * Stores new like counts of TV shows with created or deleted likes. Creating or deleting a relationship locks
+     * both of its nodes until commit, so counts of concurrent transactions are not lost. TV shows without a stored
+     * count get the count of their likes, including likes of this transaction. Returns new counts by TV show
+     * node id, 0 for deleted TV shows.
+     */
+    @Override
+    public PrimitiveLongIntMap beforeCommit(final TransactionData data) {
+        PrimitiveLongIntMap likeChanges = null;
+        for (Relationship like : data.createdRelationships()) {
+            if (like.isType(RelationType.LIKES)) {
+                likeChanges = addLikeChange(likeChanges, data, like, 1);
+            }
+        }
+        for (Relationship like : data.deletedRelationships()) {
+            if (like.isType(RelationType.LIKES)) {
+                likeChanges = addLikeChange(likeChanges, data, like, -1);
+            }
+        }
+
+        PrimitiveLongIntMap likeCounts = null;
+        if (likeChanges != null) {
+            likeCounts = Primitive.longIntMap();
+            PrimitiveLongIterator tvShowIds = likeChanges.iterator();
+            while (tvShowIds.hasNext()) {
+                long tvShowId = tvShowIds.next();
+                Node tvShowNode = database.getNodeById(tvShowId);
+                if (!tvShowNode.hasLabel(TvShow.TV_SHOW_LABEL)) {
+                    continue;
+                }
+                Object storedCount = tvShowNode.getProperty(TvShow.LIKE_COUNT, null);
+                int likeCount = storedCount instanceof Number
+                        ? ((Number) storedCount).intValue() + likeChanges.get(tvShowId)
+                        : new TvShow(tvShowNode).getLikeCount();
+                tvShowNode.setProperty(TvShow.LIKE_COUNT, likeCount);
+                likeCounts.put(tvShowId, likeCount);
+            }
+            likeChanges.close();
+        }
+        for (LabelEntry labelEntry : data.removedLabels()) {
+            if (labelEntry.label().equals(TvShow.TV_SHOW_LABEL)) {
+                likeCounts = putRemoved(likeCounts, labelEntry.node().getId());
+            }
+        }
+        for (Node node : data.deletedNodes()) {
+            likeCounts = putRemoved(likeCounts, node.getId());
+        }
+        return likeCounts;
+    }
+
+    private static PrimitiveLongIntMap addLikeChange(PrimitiveLongIntMap likeChanges, final TransactionData data,
+                                                     final Relationship like, final int change) {
+        Node tvShowNode = like.getEndNode();
+        if (data.isDeleted(tvShowNode)) {
+            return likeChanges;
+        }
+        if (likeChanges == null) {
+            likeChanges = Primitive.longIntMap();
+        }
+        long tvShowId = tvShowNode.getId();
+        likeChanges.put(tvShowId, likeChanges.containsKey(tvShowId) ? likeChanges.get(tvShowId) + change : change);
+        return likeChanges;
+    }
+
+    private static PrimitiveLongIntMap putRemoved(PrimitiveLongIntMap likeCounts, final long nodeId) {
+        if (likeCounts == null) {
+            likeCounts = Primitive.longIntMap();
+        }
+        likeCounts.put(nodeId, 0);
+        return likeCounts;
+    }
+
+    /**
+     * Creates new list with changed counts.
+     */
+    @Override
+    public void afterCommit(final TransactionData data, final PrimitiveLongIntMap likeCounts) {
+        if (likeCounts == null) {
+            return;
+        }
+        synchronized (this) {
+            snapshot = snapshot.apply(likeCounts);
+            if (committedWhileBuilding != null) {
+                PrimitiveLongIterator tvShowIds = likeCounts.iterator();
+                while (tvShowIds.hasNext()) {
+                    long tvShowId = tvShowIds.next();
+                    committedWhileBuilding.put(tvShowId, likeCounts.get(tvShowId));
+                }
+            }
+        }
+        likeCounts.close();
+    }
+
+    @Override
+    public void afterRollback(final TransactionData data, final PrimitiveLongIntMap likeCounts) {
+        //nothing was applied before commit
+    }
+
+    /**
+     * Immutable list of TV shows with the highest counts from the best, with the highest count that a TV show
+     * that is not listed may have.
+     */
+    private static class Snapshot {
+        private final ScoredTvShow[] top;
+        private final long maxUnlistedCount;
+
+        private Snapshot(ScoredTvShow[] top, long maxUnlistedCount) {
+            this.top = top;
+            this.maxUnlistedCount = maxUnlistedCount;
+        }
+
+        /**
+         * Finds up to <code>limit</code> listed TV shows that are not in the given set. If <code>exact</code>,
+         * returns null when a TV show that is not listed may belong to the result.
+         */
+        private ScoredTvShow[] find(final int limit, final PrimitiveLongSet excludedTvShowIds,
+                                    final boolean exact) {
+            List<ScoredTvShow> found = new ArrayList<>(limit);
+            for (int i = 0; i < top.length && found.size() < limit; i++) {
+                if (!excludedTvShowIds.contains(top[i].getNodeId())) {
+                    if (exact && top[i].getScore() < maxUnlistedCount) {
+                        return null;
+                    }
+                    found.add(top[i]);
+                }
+            }
+            if (exact && found.size() < limit && maxUnlistedCount > 0) {
+                return null;
+            }
+            return found.toArray(new ScoredTvShow[found.size()]);
+        }
+
+        /**
+         * Creates list with new counts of TV shows, TV shows with no likes are not listed. TV shows that do not
+         * fit in the list raise the highest count of not listed TV shows.
+         */
+        private Snapshot apply(final PrimitiveLongIntMap likeCounts) {
+            List<ScoredTvShow> changed = new ArrayList<>(top.length + likeCounts.size());
+            for (ScoredTvShow tvShow : top) {
+                if (!likeCounts.containsKey(tvShow.getNodeId())) {
+                    changed.add(tvShow);
+                }
+            }
+            PrimitiveLongIterator tvShowIds = likeCounts.iterator();
+            while (tvShowIds.hasNext()) {
+                long tvShowId = tvShowIds.next();
+                int likeCount = likeCounts.get(tvShowId);
+                if (likeCount > 0) {
+                    changed.add(new ScoredTvShow(tvShowId, likeCount));
+                }
+            }
+            ScoredTvShow[] sorted = changed.toArray(new ScoredTvShow[changed.size()]);
+            Arrays.sort(sorted, RecommendationEngine.HIGHEST_SCORE_FIRST);
+            long newMaxUnlistedCount = maxUnlistedCount;
+            if (sorted.length > CANDIDATES) {
+                newMaxUnlistedCount = Math.max(newMaxUnlistedCount, sorted[CANDIDATES].getScore());
+            }
+            return new Snapshot(Arrays.copyOf(sorted, Math.min(sorted.length, CANDIDATES)), newMaxUnlistedCount);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.neo4j.homework.unmanagedextension;
+
+import com.neo4j.homework.unmanagedextension.RecommendationEngine.ScoredTvShow;
+import com.neo4j.homework.unmanagedextension.domain.RelationType;
+import com.neo4j.homework.unmanagedextension.domain.User;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIntMap;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-memory counts of recent likes by TV show for finding trending TV shows. Likes are counted by their creation
+ * time in two rings of buckets: one bucket for each of the last 60 minutes and one for each of the last 24 hours.
+ * A bucket of an old minute or hour is replaced with compare-and-set and counters are atomic, so counting does not
+ * lock. Counts are built on extension start from creation times of likes and then updated from every committed
+ * transaction that creates or deletes likes.
+ */
+public class TrendingTvShows implements TransactionEventHandler<TrendingTvShows.Changes> {
+    /** Longest window of trending TV shows in minutes. */
+    static final int MAX_WINDOW_MINUTES = (int) TimeUnit.DAYS.toMinutes(1);
+
+    /**
+     * Object for accessing graph database and execute commands.
+     */
+    private final GraphDatabaseService database;
+    private final Ring minutes = new Ring(TimeUnit.MINUTES.toMillis(1), 60);
+    private final Ring hours = new Ring(TimeUnit.HOURS.toMillis(1), 24);
+
+    public TrendingTvShows(final GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    /**
+     * Counts likes created in the last <code>MAX_WINDOW_MINUTES</code> in one pass over users' likes.
+     */
+    void build() {
+        long from = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(MAX_WINDOW_MINUTES);
+        try ( Transaction tx = database.beginTx();
+              ResourceIterator<Node> userNodes = database.findNodes(User.USER_LABEL) ) {
+            while (userNodes.hasNext()) {
+                for (Relationship like : userNodes.next().getRelationships(RelationType.LIKES, Direction.OUTGOING)) {
+                    Object created = like.getProperty(User.LIKE_CREATED, null);
+                    if (created instanceof Number && ((Number) created).longValue() >= from) {
+                        add(like.getEndNode().getId(), ((Number) created).longValue(), 1);
+                    }
+                }
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * Converts window like "15m" or "6h" to minutes. Windows up to an hour are counted by minute, longer windows
+     * by hour, so they must be whole hours.
+     */
+    static int toWindowMinutes(final String window) throws IOException {
+        if (window.matches("[1-9][0-9]{0,3}m")) {
+            int windowMinutes = Integer.parseInt(window.substring(0, window.length() - 1));
+            if (windowMinutes <= 60) {
+                return windowMinutes;
+            }
+        } else if (window.matches("[1-9][0-9]?h")) {
+            int windowHours = Integer.parseInt(window.substring(0, window.length() - 1));
+            if (windowHours <= 24) {
+                return (int) TimeUnit.HOURS.toMinutes(windowHours);
+            }
+        }
+        throw new IOException("Window must be 1m to 60m or 1h to 24h: " + window);
+    }
+
+    /**
+     * Gets up to <code>limit</code> TV shows with the most likes created in the last <code>windowMinutes</code>
+     * (including the current minute or hour), from the best.
+     */
+    ScoredTvShow[] getTrending(final int windowMinutes, final int limit) {
+        PrimitiveLongIntMap counts = Primitive.longIntMap();
+        if (windowMinutes <= 60) {
+            minutes.sum(System.currentTimeMillis(), windowMinutes, counts);
+        } else {
+            hours.sum(System.currentTimeMillis(), (int) TimeUnit.MINUTES.toHours(windowMinutes), counts);
+        }
+        ScoredTvShow[] trending = RecommendationEngine.selectTop(counts, limit);
+        counts.close();
+        return trending;
+    }
+
+    private void add(final long tvShowId, final long createdMillis, final int change) {
+        minutes.add(tvShowId, createdMillis, change);
+        hours.add(tvShowId, createdMillis, change);
+    }
+
+    /**
+     * Collects creation times of created and deleted likes while transaction state can still be read.
+     * Likes created without creation time are counted at commit time.
+     */
+    @Override
+    public Changes beforeCommit(final TransactionData data) {
+        Changes changes = null;
+        for (Relationship like : data.createdRelationships()) {
+            if (like.isType(RelationType.LIKES) && !data.isDeleted(like)) {
+                Object created = like.getProperty(User.LIKE_CREATED, null);
+                changes = addChange(changes, like.getEndNode().getId(),
+                                    created instanceof Number ? (Number) created : null, 1);
+            }
+        }
+        for (PropertyEntry<Relationship> property : data.removedRelationshipProperties()) {
+            Relationship like = property.entity();
+            if (property.key().equals(User.LIKE_CREATED) && data.isDeleted(like) && like.isType(RelationType.LIKES)
+                    && property.previouslyCommitedValue() instanceof Number) {
+                changes = addChange(changes, like.getEndNode().getId(), (Number) property.previouslyCommitedValue(),
+                                    -1);
+            }
+        }
+        return changes;
+    }
+
+    private static Changes addChange(Changes changes, final long tvShowId, final Number created, final int change) {
+        if (changes == null) {
+            changes = new Changes();
+        }
+        changes.tvShowIds[changes.size] = tvShowId;
+        changes.createdMillis[changes.size] = created == null ? -1 : created.longValue();
+        changes.changes[changes.size] = change;
+        changes.grow();
+        return changes;
+    }
+
+    @Override
+    public void afterCommit(final TransactionData data, final Changes changes) {
+        if (changes == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < changes.size; i++) {
+            add(changes.tvShowIds[i], changes.createdMillis[i] < 0 ? now : changes.createdMillis[i],
+                changes.changes[i]);
+        }
+    }
+
+    @Override
+    public void afterRollback(final TransactionData data, final Changes changes) {
+        //nothing was applied before commit
+    }
+
+    /**
+     * Ring of buckets of like counts, bucket of time unit <code>t</code> is at index <code>t % size</code>.
+     */
+    private static class Ring {
+        private final long unitMillis;
+        private final AtomicReferenceArray<Bucket> buckets;
+
+        private Ring(long unitMillis, int size) {
+            this.unitMillis = unitMillis;
+            this.buckets = new AtomicReferenceArray<>(size);
+        }
+
+        private void add(final long tvShowId, final long createdMillis, final int change) {
+            long unit = createdMillis / unitMillis;
+            int index = (int) (unit % buckets.length());
+            while (true) {
+                Bucket bucket = buckets.get(index);
+                if (bucket != null && bucket.unit > unit) {
+                    //like is older than the ring
+                    return;
+                }
+                if (bucket != null && bucket.unit == unit) {
+                    bucket.add(tvShowId, change);
+                    return;
+                }
+                if (change > 0) {
+                    buckets.compareAndSet(index, bucket, new Bucket(unit));
+                } else {
+                    //bucket of deleted like is already gone
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Adds counts of the last <code>units</code> buckets up to the current one.
+         */
+        private void sum(final long nowMillis, final int units, final PrimitiveLongIntMap counts) {
+            long now = nowMillis / unitMillis;
+            for (long unit = now - Math.min(units, buckets.length()) + 1; unit <= now; unit++) {
+                Bucket bucket = buckets.get((int) (unit % buckets.length()));
+                if (bucket == null || bucket.unit != unit) {
+                    continue;
+                }
+                for (Map.Entry<Long, AtomicInteger> count : bucket.counts.entrySet()) {
+                    long tvShowId = count.getKey();
+                    int value = count.getValue().get();
+                    if (value <= 0) {
+                        //all likes of the bucket were deleted
+                        continue;
+                    }
+                    counts.put(tvShowId, counts.containsKey(tvShowId) ? counts.get(tvShowId) + value : value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Like counts by TV show node id of one minute or hour.
+     */
+    private static class Bucket {
+        private final long unit;
+        private final ConcurrentMap<Long, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+        private Bucket(long unit) {
+            this.unit = unit;
+        }
+
+        private void add(final long tvShowId, final int change) {
+            AtomicInteger count = counts.get(tvShowId);
+            if (count == null) {
+                AtomicInteger newCount = new AtomicInteger();
+                count = counts.putIfAbsent(tvShowId, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.addAndGet(change);
+        }
+    }
+
+    /**
+     * Like changes of a transaction: TV show node id, creation time (-1 if unknown) and +1 or -1.
+     */
+    static class Changes {
+        private long[] tvShowIds = new long[4];
+        private long[] createdMillis = new long[4];
+        private int[] changes = new int[4];
+        private int size;
+
+        private void grow() {
+            size++;
+            if (size == tvShowIds.length) {
+                tvShowIds = Arrays.copyOf(tvShowIds, size * 2);
+                createdMillis = Arrays.copyOf(createdMillis, size * 2);
+                changes = Arrays.copyOf(changes, size * 2);
+            }
+        }
+    }
+}
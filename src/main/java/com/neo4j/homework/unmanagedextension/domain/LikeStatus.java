@@ -0,0 +1,29 @@
+package com.neo4j.homework.unmanagedextension.domain;
+
+/**
+ * Result of adding a TV show like by user.
+ */
+public enum LikeStatus {
+
+    ADDED(true, "User now likes this TV Show"),
+    ALREADY_LIKED(false, "Already liked"),
+    UNKNOWN_USER(false, "No such user in the database"),
+    UNKNOWN_TV_SHOW(false, "No such TV show in the database"),
+    CONCURRENT_UPDATE(false, "Not added because of concurrent updates, try again");
+
+    private boolean statusOk;
+    private String description;
+
+    LikeStatus(boolean statusOk, String description) {
+        this.statusOk = statusOk;
+        this.description = description;
+    }
+
+    public boolean isStatusOk() {
+        return statusOk;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
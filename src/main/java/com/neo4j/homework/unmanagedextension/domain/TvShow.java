@@ -1,7 +1,15 @@
 package com.neo4j.homework.unmanagedextension.domain;
 
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Database domain node for TV show.
  */
@@ -12,10 +20,24 @@ public class TvShow {
     public static final String RELEASE_DATE = "releaseDate";
     /** TV show end date property value. */
     public static final String END_DATE = "endDate";
+    /** TV show like count property value, count of incoming LIKES relationships. */
+    public static final String LIKE_COUNT = "likeCount";
     /** TV show title length. */
     public static final int TITLE_LENGTH = 50;
     /** TV show date format. */
     public final static String DATE_FORMAT = "dd-MM-yyyy";
+    /** Milliseconds in a day. */
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    /** Not lenient UTC date format for each thread, days since 1970-01-01 are counted in UTC. */
+    private static final ThreadLocal<DateFormat> EPOCH_DAY_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat df = new SimpleDateFormat(DATE_FORMAT);
+            df.setLenient(false);
+            df.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return df;
+        }
+    };
     /** TV show node label. */
     public static final Label TV_SHOW_LABEL = Label.TV_SHOW;
     /** TV shows's underlying database node. */
@@ -34,11 +56,66 @@ public class TvShow {
     }
 
     public String getReleaseDate() {
-        return (String)underlyingNode.getProperty(RELEASE_DATE);
+        return toDateString(underlyingNode.getProperty(RELEASE_DATE));
+    }
+
+    /**
+     * Gets release date as days since 1970-01-01. Returns null if date cannot be read.
+     */
+    public Long getReleaseDateValue() {
+        return toEpochDayValue(underlyingNode.getProperty(RELEASE_DATE));
     }
 
+    /**
+     * Gets end date. Returns null if TV show has not ended.
+     */
     public String getEndDate() {
-        return (String)underlyingNode.getProperty(END_DATE);
+        Object endDate = underlyingNode.getProperty(END_DATE, null);
+        return endDate == null ? null : toDateString(endDate);
+    }
+
+    /**
+     * Gets count of users that like the TV show. TV shows created by older versions may not have the count stored
+     * yet, then likes are counted.
+     */
+    public int getLikeCount() {
+        Object likeCount = underlyingNode.getProperty(LIKE_COUNT, null);
+        return likeCount instanceof Number ? ((Number) likeCount).intValue()
+                                           : underlyingNode.getDegree(RelationType.LIKES, Direction.INCOMING);
+    }
+
+    /**
+     * Converts date in <code>DATE_FORMAT</code> to days since 1970-01-01, the way dates are stored.
+     */
+    public static long toEpochDay(final String date) throws ParseException {
+        return EPOCH_DAY_FORMAT.get().parse(date).getTime() / DAY_MILLIS;
+    }
+
+    /**
+     * Converts days since 1970-01-01 to date in <code>DATE_FORMAT</code>.
+     */
+    public static String toDateString(final long epochDay) {
+        return EPOCH_DAY_FORMAT.get().format(new Date(epochDay * DAY_MILLIS));
+    }
+
+    /**
+     * Converts stored date to days since 1970-01-01. Dates stored before migration are strings
+     * in <code>DATE_FORMAT</code>. Returns null if date cannot be read.
+     */
+    public static Long toEpochDayValue(final Object storedDate) {
+        if (storedDate instanceof Number) {
+            return ((Number) storedDate).longValue();
+        }
+        try {
+            return toEpochDay(String.valueOf(storedDate));
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private static String toDateString(final Object storedDate) {
+        return storedDate instanceof Number ? toDateString(((Number) storedDate).longValue())
+                                            : String.valueOf(storedDate);
     }
 
     @Override
@@ -1,12 +1,11 @@
 package com.neo4j.homework.unmanagedextension.domain;
 
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Database domain node for User.
  */
@@ -17,6 +16,8 @@ public class User {
     public static final String AGE = "age";
     /** User gender property value. */
     public static final String GENDER = "gender";
+    /** TV show like creation time property value, milliseconds since 1970-01-01. */
+    public static final String LIKE_CREATED = "created";
     /** User's min age. */
     public static final int MIN_AGE = 1;
     /** User's max age. */
@@ -42,7 +43,21 @@ public class User {
     }
 
     public String getAge() {
-        return (String)underlyingNode.getProperty(AGE);
+        return String.valueOf(underlyingNode.getProperty(AGE));
+    }
+
+    /**
+     * Converts stored age to a number. Returns null if age is not a number.
+     */
+    public static Integer toAgeValue(final Object storedAge) {
+        if (storedAge instanceof Number) {
+            return ((Number) storedAge).intValue();
+        }
+        try {
+            return Integer.valueOf(String.valueOf(storedAge));
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
     public String getGender() {
@@ -57,21 +72,68 @@ public class User {
         if ( tvShowRelationShip == null )
         {
             //user starts to like tv-show
-            underlyingNode.createRelationshipTo( tvShow.getUnderlyingNode(), RelationType.LIKES );
+            createTvShowLike(tvShow);
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * Adds a TV show like relationship if TV show is not in the given set of already liked TV show ids.
+     * Set is updated with the new like. Used when many likes of the same user are added at once.
+     */
+    public boolean addTvShowLike(TvShow tvShow, PrimitiveLongSet likedTvShowIds) {
+        if ( likedTvShowIds.add( tvShow.getUnderlyingNode().getId() ) )
+        {
+            //user starts to like tv-show
+            createTvShowLike(tvShow);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a TV show like relationship with creation time without looking for an existing one. Caller must know
+     * that user does not like the TV show.
+     */
+    public void createTvShowLike(TvShow tvShow) {
+        Relationship like = underlyingNode.createRelationshipTo( tvShow.getUnderlyingNode(), RelationType.LIKES );
+        like.setProperty( LIKE_CREATED, System.currentTimeMillis() );
+    }
+
+    /**
+     * Gets node ids of TV shows liked by user.
+     */
+    public PrimitiveLongSet getLikedTvShowIds() {
+        PrimitiveLongSet tvShowIds = Primitive.longSet();
+        for ( Relationship rel : underlyingNode.getRelationships( RelationType.LIKES, Direction.OUTGOING ) )
+        {
+            tvShowIds.add( rel.getEndNode().getId() );
+        }
+        return tvShowIds;
+    }
+
     /**
      * Gets relationship to the TV Show. Returns null if user has no relationships(LIKES).
+     * Likes are read from the user or the TV show, whichever has fewer of them.
      */
     private Relationship getTvShowRelationship(TvShow tvShow) {
         Node tvShowNode = tvShow.getUnderlyingNode();
-        for ( Relationship rel : underlyingNode.getRelationships( RelationType.LIKES ) )
+        Node fromNode = underlyingNode;
+        Node toNode = tvShowNode;
+        Direction direction = Direction.OUTGOING;
+        if ( tvShowNode.getDegree( RelationType.LIKES, Direction.INCOMING )
+                < underlyingNode.getDegree( RelationType.LIKES, Direction.OUTGOING ) )
         {
-            if ( rel.getOtherNode( underlyingNode ).equals( tvShowNode ) )
+            fromNode = tvShowNode;
+            toNode = underlyingNode;
+            direction = Direction.INCOMING;
+        }
+        for ( Relationship rel : fromNode.getRelationships( RelationType.LIKES, direction ) )
+        {
+            if ( rel.getOtherNode( fromNode ).equals( toNode ) )
             {
                 //user already likes this tv show
                 return rel;
@@ -81,18 +143,6 @@ public class User {
         return null;
     }
 
-    /**
-     * Gets a list of liked TV shows by user.
-     */
-    public List<String> getLikedTvShows() {
-        List<String> movies = new ArrayList<>();
-        for ( Relationship rel : underlyingNode.getRelationships( RelationType.LIKES, Direction.OUTGOING ) )
-        {
-            movies.add(new TvShow(rel.getOtherNode(underlyingNode)).getName());
-        }
-        return movies;
-    }
-
     @Override
     public int hashCode()
     {
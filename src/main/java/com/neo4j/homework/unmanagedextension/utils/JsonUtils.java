@@ -20,7 +20,21 @@ import java.util.regex.Pattern;
  */
 public class JsonUtils {
 
-    private static ObjectMapper objectMapper = new ObjectMapper();
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /** User's email pattern, compiled once. Patterns are thread-safe. */
+    private static final Pattern MAIL_PATTERN = Pattern.compile("^[_A-Za-z0-9-\\+]+(\\.[_A-Za-z0-9-]+)*@"
+            + "[A-Za-z0-9-]+(\\.[A-Za-z0-9]+)*(\\.[A-Za-z]{2,})$");
+
+    /** Not lenient API date format for each thread, date formats are not thread-safe. */
+    private static final ThreadLocal<DateFormat> API_DATE_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat df = new SimpleDateFormat(TvShow.DATE_FORMAT);
+            df.setLenient(false);
+            return df;
+        }
+    };
 
     /**
      * Private constructor. Only static methods for this class.
@@ -57,9 +71,7 @@ public class JsonUtils {
      * Validates user's email. alphanumeric{n}@alphanumeric{n}.alpha{2,n}
      */
     public static boolean validateUserMail(final String email) throws IOException {
-        Pattern p = Pattern.compile("^[_A-Za-z0-9-\\+]+(\\.[_A-Za-z0-9-]+)*@"
-                + "[A-Za-z0-9-]+(\\.[A-Za-z0-9]+)*(\\.[A-Za-z]{2,})$");
-        Matcher m = p.matcher(email);
+        Matcher m = MAIL_PATTERN.matcher(email);
 
         return m.matches();
     }
@@ -133,11 +145,35 @@ public class JsonUtils {
         }
 
         JsonNode node = objectMapper.readTree(jsonContext);
+        checkJsonNodeSize(node, expectedNodeSize);
+        return node;
+    }
 
+    /**
+     * Sees if JSON node is with expected size.
+     */
+    public static void checkJsonNodeSize(final JsonNode node, final int expectedNodeSize) throws IOException {
         if (node.size() != expectedNodeSize) {
             String stringToFormat = "Received JSON context with wrong node size value [%d], value [%d] is expected";
             throw new IOException(String.format(stringToFormat, node.size(), expectedNodeSize));
         }
+    }
+
+    /**
+     * Gets root JSON array node from JSON string. Array cannot be empty.
+     */
+    public static JsonNode getAndCheckJsonArray(final String jsonContext) throws IOException {
+        if (jsonContext == null || jsonContext.trim().isEmpty()) {
+            throw new IOException("Received empty JSON context");
+        }
+
+        JsonNode node = objectMapper.readTree(jsonContext);
+
+        if (!node.isArray()) {
+            throw new IOException("Received JSON context is not an array");
+        } else if (node.size() == 0) {
+            throw new IOException("Received empty JSON array");
+        }
 
         return node;
     }
@@ -170,18 +206,23 @@ public class JsonUtils {
      * Validates JSON node, TV show date and returns date. Does not return date for <code>TvShow.END_DATE</code>.
      */
     public static String validateTvShowDate(final JsonNode parentNode,final  String dbPropertyName) throws IOException {
-        JsonNode subNode = null;
+        return validateTvShowDate(validateJsonNode(parentNode, dbPropertyName).asText(), dbPropertyName);
+    }
+
+    /**
+     * Validates TV show date and returns date. Returns null for empty <code>TvShow.END_DATE</code>.
+     */
+    public static String validateTvShowDate(final String date, final String dbPropertyName) throws IOException {
         try {
-            subNode = validateJsonNode(parentNode, dbPropertyName);
             if (dbPropertyName.equals(TvShow.END_DATE)) {
-                if (subNode != null && !subNode.asText().isEmpty()) {
-                    return toApiStringFormat(isDateValid(subNode.asText()));
+                if (!date.isEmpty()) {
+                    return toApiStringFormat(isDateValid(date));
                 } else {
                     return null;
                 }
             } else {
                 Date currentDate = new Date();
-                Date airDate = isDateValid(subNode.asText());
+                Date airDate = isDateValid(date);
                 if (airDate.after(currentDate)) {
                     throw new IOException("TV Show has its air date [" + toApiStringFormat(airDate)
                             + "] after current date [" + toApiStringFormat(currentDate) + "]");
@@ -189,7 +230,7 @@ public class JsonUtils {
                 return toApiStringFormat(airDate);
             }
         } catch (ParseException e) {
-            throw new IOException("TV Show has node " + dbPropertyName + " with illegal value: " + subNode.asText()
+            throw new IOException("TV Show has node " + dbPropertyName + " with illegal value: " + date
                                 + ". Allowed format: " + TvShow.DATE_FORMAT);
         }
     }
@@ -226,15 +267,13 @@ public class JsonUtils {
      * Returns Date object as API string.
      */
     public static String toApiStringFormat(final Date date) {
-        return new SimpleDateFormat(TvShow.DATE_FORMAT).format(date);
+        return API_DATE_FORMAT.get().format(date);
     }
 
     /**
      * Validate date according to the API format.
      */
     public static Date isDateValid(String date) throws ParseException {
-        DateFormat df = new SimpleDateFormat(TvShow.DATE_FORMAT);
-        df.setLenient(false);
-        return df.parse(date);
+        return API_DATE_FORMAT.get().parse(date);
     }
 }
@@ -0,0 +1,139 @@
+package com.neo4j.homework.tools;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Reads small files in chunks of every size from one byte up, so chunk boundaries fall on every position
+ * of the lines.
+ */
+public class CsvReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsSameRecordsWithAnyChunkSize() throws Exception {
+        String content = "mail;age;gender\n"
+                + "first@mail.com;20;M\r\n"
+                + "\n"
+                + "second@mail.com;30;F\n"
+                + "\r\n"
+                + "a much longer line than some chunks are;with;four;columns\n"
+                + "\u00fctf-8 k\u00e4se;\u00e4;\n"
+                + "last@mail.com;40;M";
+        File file = write(content);
+        List<String> expected = Arrays.asList("first@mail.com;20;M", "second@mail.com;30;F",
+                "a much longer line than some chunks are;with;four;columns", "\u00fctf-8 k\u00e4se;\u00e4;", "last@mail.com;40;M");
+        for (int chunkSize = 1; chunkSize <= content.length() + 1; chunkSize++) {
+            for (int threads = 1; threads <= 3; threads++) {
+                assertEquals("chunk size " + chunkSize, sorted(expected), sorted(readLines(file, threads, chunkSize)));
+            }
+        }
+    }
+
+    @Test
+    public void skipsOnlyHeaderOfFirstChunk() throws Exception {
+        File file = write("header\nfirst\nsecond\nthird\n");
+        for (int chunkSize = 1; chunkSize <= 8; chunkSize++) {
+            assertEquals(Arrays.asList("first", "second", "third"), sorted(readLines(file, 2, chunkSize)));
+        }
+    }
+
+    @Test
+    public void recordsOffsetsOfLines() throws Exception {
+        String content = "header\r\nfirst;1\r\nsecond;2\n";
+        File file = write(content);
+        final List<String> offsets = Collections.synchronizedList(new ArrayList<String>());
+        CsvReader.read(file, 2, 4, new CsvReader.RecordHandler() {
+            @Override
+            public void handle(final CsvReader.Record record) {
+                offsets.add(record.getOffset() + ":" + record.getColumn(0));
+            }
+        });
+        assertEquals(sorted(Arrays.asList(content.indexOf("first") + ":first",
+                                          content.indexOf("second") + ":second")), sorted(offsets));
+    }
+
+    @Test
+    public void countsColumnsAndComparesBytes() throws Exception {
+        File file = write("title;aired;ended\nshow;01-01-2000;N/A\nshow;01-01-2000\nshow;01-01-2000;N/AX\n");
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        CsvReader.read(file, 1, 5, new CsvReader.RecordHandler() {
+            @Override
+            public void handle(final CsvReader.Record record) {
+                results.add(record.getColumnCount() + ":"
+                            + (record.getColumnCount() > 2 && record.columnEquals(2, CsvRows.NOT_ENDED)));
+            }
+        });
+        assertEquals(Arrays.asList("2:false", "3:false", "3:true"), sorted(results));
+    }
+
+    @Test
+    public void escapesJsonStrings() throws Exception {
+        File file = write("header\nquote \" backslash \\ tab \t bell \u0007 \u00fctf;x\n");
+        final List<String> json = Collections.synchronizedList(new ArrayList<String>());
+        CsvReader.read(file, 1, new CsvReader.RecordHandler() {
+            @Override
+            public void handle(final CsvReader.Record record) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                record.writeJsonString(0, out);
+                json.add(new String(out.toByteArray(), StandardCharsets.UTF_8));
+            }
+        });
+        assertEquals(Collections.singletonList("\"quote \\\" backslash \\\\ tab \\u0009 bell \\u0007 \u00fctf\""), json);
+    }
+
+    @Test
+    public void throwsHandlerFailure() throws Exception {
+        File file = write("header\nfirst\nsecond\n");
+        try {
+            CsvReader.read(file, 2, 1, new CsvReader.RecordHandler() {
+                @Override
+                public void handle(final CsvReader.Record record) throws IOException {
+                    throw new IOException("failed " + record.getColumn(0));
+                }
+            });
+            fail("handler failure is not thrown");
+        } catch (IOException e) {
+            assertEquals(true, e.getMessage().startsWith("failed "));
+        }
+    }
+
+    private File write(final String content) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<String> readLines(final File file, final int threads, final int chunkSize)
+            throws IOException, InterruptedException {
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        CsvReader.read(file, threads, chunkSize, new CsvReader.RecordHandler() {
+            @Override
+            public void handle(final CsvReader.Record record) {
+                lines.add(record.toString());
+            }
+        });
+        return lines;
+    }
+
+    private static List<String> sorted(final List<String> list) {
+        List<String> copy = new ArrayList<>(list);
+        Collections.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,246 @@
+package com.neo4j.homework.unmanagedextension;
+
+import com.neo4j.homework.unmanagedextension.domain.RelationType;
+import com.neo4j.homework.unmanagedextension.domain.TvShow;
+import com.neo4j.homework.unmanagedextension.domain.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIntMap;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Applies like transactions to the co-like index and compares its rows with rows built from the database.
+ */
+public class CoLikeIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GraphDatabaseService database;
+    private CoLikeIndex index;
+    private long[] userIds;
+    private long[] tvShowIds;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new GraphDatabaseFactory().newEmbeddedDatabase(folder.newFolder().getPath());
+        userIds = new long[10];
+        tvShowIds = new long[8];
+        try ( Transaction tx = database.beginTx() ) {
+            for (int i = 0; i < userIds.length; i++) {
+                userIds[i] = database.createNode(User.USER_LABEL).getId();
+            }
+            for (int i = 0; i < tvShowIds.length; i++) {
+                tvShowIds[i] = database.createNode(TvShow.TV_SHOW_LABEL).getId();
+            }
+            tx.success();
+        }
+        index = new CoLikeIndex(database, new RecommendationCache(0, 0), Long.MAX_VALUE);
+        database.registerTransactionEventHandler(index);
+        index.build();
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void countsPairsOfTvShowsCreatedInOneTransaction() {
+        like(0, 0);
+        index.applyPending();
+
+        //both new TV shows are changed, their pair is counted once from each side
+        try ( Transaction tx = database.beginTx() ) {
+            createLike(0, 1);
+            createLike(0, 2);
+            tx.success();
+        }
+        index.applyPending();
+
+        assertEquals(1, countOf(0, 1));
+        assertEquals(1, countOf(1, 0));
+        assertEquals(1, countOf(1, 2));
+        assertEquals(1, countOf(2, 1));
+        assertEquals(1, countOf(0, 2));
+        assertEquals(1, countOf(2, 0));
+        assertMatchesBuild();
+    }
+
+    @Test
+    public void removesPairsOfDeletedLikes() {
+        try ( Transaction tx = database.beginTx() ) {
+            createLike(0, 0);
+            createLike(0, 1);
+            createLike(0, 2);
+            createLike(1, 0);
+            createLike(1, 1);
+            tx.success();
+        }
+        index.applyPending();
+        assertEquals(2, countOf(0, 1));
+
+        try ( Transaction tx = database.beginTx() ) {
+            deleteLike(0, 0);
+            deleteLike(0, 1);
+            tx.success();
+        }
+        index.applyPending();
+
+        assertEquals(1, countOf(0, 1));
+        assertEquals(0, countOf(0, 2));
+        assertEquals(0, countOf(1, 2));
+        assertMatchesBuild();
+    }
+
+    @Test
+    public void cancelsLikeCreatedAndDeletedBeforeItIsApplied() {
+        like(0, 0);
+        index.applyPending();
+        like(0, 1);
+        try ( Transaction tx = database.beginTx() ) {
+            deleteLike(0, 1);
+            tx.success();
+        }
+        index.applyPending();
+
+        assertEquals(0, countOf(0, 1));
+        assertMatchesBuild();
+    }
+
+    @Test
+    public void removesPairsOfDeletedUser() {
+        try ( Transaction tx = database.beginTx() ) {
+            createLike(0, 0);
+            createLike(0, 1);
+            createLike(1, 0);
+            createLike(1, 1);
+            tx.success();
+        }
+        index.applyPending();
+
+        try ( Transaction tx = database.beginTx() ) {
+            Node userNode = database.getNodeById(userIds[0]);
+            for (Relationship like : userNode.getRelationships()) {
+                like.delete();
+            }
+            userNode.delete();
+            tx.success();
+        }
+        index.applyPending();
+
+        assertEquals(1, countOf(0, 1));
+        assertMatchesBuild();
+    }
+
+    @Test
+    public void matchesBuildAfterRandomTransactions() {
+        Random random = new Random(42);
+        for (int transaction = 0; transaction < 300; transaction++) {
+            try ( Transaction tx = database.beginTx() ) {
+                int changes = 1 + random.nextInt(4);
+                for (int i = 0; i < changes; i++) {
+                    int user = random.nextInt(userIds.length);
+                    int tvShow = random.nextInt(tvShowIds.length);
+                    if (!deleteLike(user, tvShow)) {
+                        createLike(user, tvShow);
+                    }
+                }
+                tx.success();
+            }
+            if (random.nextInt(3) == 0) {
+                index.applyPending();
+                assertMatchesBuild();
+            }
+        }
+        index.applyPending();
+        assertMatchesBuild();
+    }
+
+    @Test
+    public void isDroppedAboveMaxEntries() {
+        try ( Transaction tx = database.beginTx() ) {
+            createLike(0, 0);
+            createLike(0, 1);
+            createLike(0, 2);
+            tx.success();
+        }
+        CoLikeIndex small = new CoLikeIndex(database, new RecommendationCache(0, 0), 5);
+        small.build();
+
+        assertFalse(small.isReady());
+        assertTrue(small.getState().startsWith("DROPPED"));
+        assertEquals(0, small.getEntries());
+        assertEquals(0, small.score(toSet(tvShowIds[0])).size());
+    }
+
+    private void like(final int user, final int tvShow) {
+        try ( Transaction tx = database.beginTx() ) {
+            createLike(user, tvShow);
+            tx.success();
+        }
+    }
+
+    private void createLike(final int user, final int tvShow) {
+        database.getNodeById(userIds[user]).createRelationshipTo(database.getNodeById(tvShowIds[tvShow]),
+                                                                 RelationType.LIKES);
+    }
+
+    /**
+     * Deletes like if there is one. Returns false if there is none.
+     */
+    private boolean deleteLike(final int user, final int tvShow) {
+        Node userNode = database.getNodeById(userIds[user]);
+        for (Relationship like : userNode.getRelationships(RelationType.LIKES, Direction.OUTGOING)) {
+            if (like.getEndNode().getId() == tvShowIds[tvShow]) {
+                like.delete();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int countOf(final int tvShow, final int otherTvShow) {
+        PrimitiveLongIntMap row = index.score(toSet(tvShowIds[tvShow]));
+        return row.containsKey(tvShowIds[otherTvShow]) ? row.get(tvShowIds[otherTvShow]) : 0;
+    }
+
+    private void assertMatchesBuild() {
+        CoLikeIndex built = new CoLikeIndex(database, new RecommendationCache(0, 0), Long.MAX_VALUE);
+        built.build();
+        assertEquals(built.getEntries(), index.getEntries());
+        for (long tvShowId : tvShowIds) {
+            PrimitiveLongIntMap expected = built.score(toSet(tvShowId));
+            PrimitiveLongIntMap actual = index.score(toSet(tvShowId));
+            assertEquals(expected.size(), actual.size());
+            PrimitiveLongIterator otherIds = expected.iterator();
+            while (otherIds.hasNext()) {
+                long otherTvShowId = otherIds.next();
+                assertTrue(actual.containsKey(otherTvShowId));
+                assertEquals(expected.get(otherTvShowId), actual.get(otherTvShowId));
+            }
+        }
+    }
+
+    private static PrimitiveLongSet toSet(final long tvShowId) {
+        PrimitiveLongSet set = Primitive.longSet();
+        set.add(tvShowId);
+        return set;
+    }
+}
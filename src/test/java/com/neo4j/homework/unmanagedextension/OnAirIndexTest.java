@@ -0,0 +1,183 @@
+package com.neo4j.homework.unmanagedextension;
+
+import com.neo4j.homework.unmanagedextension.domain.TvShow;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Changes TV show dates in transactions, so changes are kept pending and merged to new arrays, and compares
+ * TV shows found on air with TV shows read from the database.
+ */
+public class OnAirIndexTest {
+    /** Days of release and end dates. */
+    private static final int DAYS = 400;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GraphDatabaseService database;
+    private OnAirIndex index;
+    private final Random random = new Random(7);
+    private final List<Long> tvShowIds = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        database = new GraphDatabaseFactory().newEmbeddedDatabase(folder.newFolder().getPath());
+        try ( Transaction tx = database.beginTx() ) {
+            for (int i = 0; i < 300; i++) {
+                tvShowIds.add(createTvShow().getId());
+            }
+            tx.success();
+        }
+        index = new OnAirIndex(database);
+        index.build();
+        database.registerTransactionEventHandler(index);
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void findsTvShowsOfBuild() {
+        assertFoundOnAir();
+    }
+
+    @Test
+    public void findsPendingAndMergedChanges() {
+        //more new TV shows than are kept pending, so they are merged to new arrays on the way
+        for (int transaction = 0; transaction < 60; transaction++) {
+            try ( Transaction tx = database.beginTx() ) {
+                for (int i = 0; i < 20; i++) {
+                    tvShowIds.add(createTvShow().getId());
+                }
+                tx.success();
+            }
+            if (transaction % 10 == 0) {
+                assertFoundOnAir();
+            }
+        }
+        for (int transaction = 0; transaction < 150; transaction++) {
+            try ( Transaction tx = database.beginTx() ) {
+                for (int i = 0; i < 10; i++) {
+                    changeRandomTvShow();
+                }
+                tx.success();
+            }
+            if (transaction % 10 == 0) {
+                assertFoundOnAir();
+            }
+        }
+        assertFoundOnAir();
+    }
+
+    @Test
+    public void findsShowThatIsStillRunning() {
+        long tvShowId;
+        try ( Transaction tx = database.beginTx() ) {
+            Node tvShowNode = database.createNode(TvShow.TV_SHOW_LABEL);
+            tvShowNode.setProperty(TvShow.RELEASE_DATE, 10L);
+            tvShowId = tvShowNode.getId();
+            tx.success();
+        }
+        boolean found = false;
+        for (long onAir : index.findOnAir(DAYS * 10)) {
+            found |= onAir == tvShowId;
+        }
+        assertTrue(found);
+        assertFoundOnAir();
+    }
+
+    private Node createTvShow() {
+        Node tvShowNode = database.createNode(TvShow.TV_SHOW_LABEL);
+        setRandomDates(tvShowNode);
+        return tvShowNode;
+    }
+
+    private void setRandomDates(final Node tvShowNode) {
+        long releaseDate = random.nextInt(DAYS);
+        tvShowNode.setProperty(TvShow.RELEASE_DATE, releaseDate);
+        if (random.nextInt(4) == 0) {
+            tvShowNode.removeProperty(TvShow.END_DATE);
+        } else {
+            tvShowNode.setProperty(TvShow.END_DATE, releaseDate + random.nextInt(DAYS / 4));
+        }
+    }
+
+    private void changeRandomTvShow() {
+        int change = random.nextInt(4);
+        if (change == 0 || tvShowIds.isEmpty()) {
+            tvShowIds.add(createTvShow().getId());
+        } else if (change == 1) {
+            database.getNodeById(tvShowIds.remove(random.nextInt(tvShowIds.size()))).delete();
+        } else if (change == 2) {
+            database.getNodeById(tvShowIds.remove(random.nextInt(tvShowIds.size())))
+                    .removeLabel(TvShow.TV_SHOW_LABEL);
+        } else {
+            setRandomDates(database.getNodeById(tvShowIds.get(random.nextInt(tvShowIds.size()))));
+        }
+    }
+
+    /**
+     * Compares TV shows found on air with TV shows read from the database on days of the whole date range.
+     */
+    private void assertFoundOnAir() {
+        try ( Transaction tx = database.beginTx() ) {
+            for (long day = -1; day <= DAYS + DAYS / 4; day += 7) {
+                Set<Long> expected = new HashSet<>();
+                try ( ResourceIterator<Node> tvShowNodes = database.findNodes(TvShow.TV_SHOW_LABEL) ) {
+                    while (tvShowNodes.hasNext()) {
+                        Node tvShowNode = tvShowNodes.next();
+                        long releaseDate = (Long) tvShowNode.getProperty(TvShow.RELEASE_DATE);
+                        Long endDate = (Long) tvShowNode.getProperty(TvShow.END_DATE, null);
+                        if (releaseDate <= day && (endDate == null || endDate >= day)) {
+                            expected.add(tvShowNode.getId());
+                        }
+                    }
+                }
+                long[] found = index.findOnAir(day);
+                Set<Long> foundSet = new HashSet<>();
+                long previousReleaseDate = Long.MIN_VALUE;
+                for (long tvShowId : found) {
+                    foundSet.add(tvShowId);
+                    long releaseDate = (Long) database.getNodeById(tvShowId).getProperty(TvShow.RELEASE_DATE);
+                    assertTrue("ordered by release date", releaseDate >= previousReleaseDate);
+                    previousReleaseDate = releaseDate;
+                }
+                assertEquals(found.length, foundSet.size());
+                assertArrayEquals(toSortedArray(expected), toSortedArray(foundSet));
+            }
+            tx.success();
+        }
+    }
+
+    private static long[] toSortedArray(final Set<Long> set) {
+        long[] array = new long[set.size()];
+        int i = 0;
+        for (long value : set) {
+            array[i++] = value;
+        }
+        Arrays.sort(array);
+        return array;
+    }
+}